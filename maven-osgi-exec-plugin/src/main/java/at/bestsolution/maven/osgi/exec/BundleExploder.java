@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.exec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Explodes jar files into directories for bundles with {@code Eclipse-BundleShape: dir}.
+ * <p>
+ * Bundles are extracted concurrently, entries above {@link #LARGE_ENTRY_SIZE} get a task of their own. Modification
+ * times and executable bits are preserved.
+ * </p>
+ * <p>
+ * Once a bundle is complete a compact binary index holding the size and modification time of the jar and the name, CRC
+ * and size of every entry is written next to the directory, so it does not end up on the classpath of the bundle. If
+ * the jar changes only entries whose CRC or size differ are extracted again, entries no longer present are removed
+ * together with the directories they leave empty. Directories without an index are wiped and extracted again.
+ * </p>
+ */
+class BundleExploder {
+	static final String INDEX_SUFFIX = ".exploded";
+
+	private static final int INDEX_VERSION = 1;
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final long LARGE_ENTRY_SIZE = 4 * 1024 * 1024;
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int CEN_SIGNATURE = 0x02014b50;
+	private static final int UNIX_HOST = 3;
+
+	private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+	private final int parallelism;
+
+	BundleExploder(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param jar
+	 *            the bundle jar
+	 * @param target
+	 *            the directory the bundle is exploded to
+	 * @return <code>true</code> if the directory holds a complete extraction of the jar in its current state
+	 */
+	static boolean isUpToDate(Path jar, Path target) {
+		Index index = Index.read(target);
+		try {
+			return index != null && index.jarSize == Files.size(jar)
+					&& index.jarModified == Files.getLastModifiedTime(jar).toMillis();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param target
+	 *            the directory a bundle is exploded to
+	 * @return the index of the exploded bundle, a sibling of the directory
+	 */
+	static Path indexFile(Path target) {
+		return target.resolveSibling(target.getFileName() + INDEX_SUFFIX);
+	}
+
+	/**
+	 * Explodes every jar into its target directory.
+	 *
+	 * @param jars
+	 *            maps the jar file to the directory it is exploded to
+	 * @throws IOException
+	 *             if a bundle can not be extracted
+	 */
+	void explode(Map<Path, Path> jars) throws IOException {
+		if (jars.isEmpty()) {
+			return;
+		}
+
+		List<ZipFile> openFiles = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, jars.size() * 2)));
+		try {
+			List<Future<?>> tasks = new ArrayList<>();
+			Map<Path, Index> indices = new HashMap<>();
+			for (Map.Entry<Path, Path> e : jars.entrySet()) {
+				Path target = e.getValue();
+				Index previous = Index.read(target);
+				if (previous == null) {
+					deleteRecursive(target);
+				} else {
+					Files.delete(indexFile(target));
+				}
+				Files.createDirectories(target);
+
+				ZipFile z = new ZipFile(e.getKey().toFile());
+				openFiles.add(z);
+				Map<String, Integer> modes = readUnixModes(e.getKey());
+
+				Index index = new Index(Files.size(e.getKey()), Files.getLastModifiedTime(e.getKey()).toMillis());
+				indices.put(target, index);
+
+				List<ZipEntry> large = new ArrayList<>();
+				List<ZipEntry> small = new ArrayList<>();
+				Set<Path> directories = new HashSet<>();
+				for (ZipEntry entry : Collections.list(z.entries())) {
+					Path ep = resolve(target, entry);
+					if (entry.isDirectory()) {
+						Files.createDirectories(ep);
+						directories.add(ep);
+						continue;
+					}
+
+					index.add(entry.getName(), entry.getCrc(), entry.getSize());
+					if (previous != null && previous.contains(entry.getName(), entry.getCrc(), entry.getSize())
+							&& Files.exists(ep)) {
+						continue;
+					} else if (entry.getSize() > LARGE_ENTRY_SIZE) {
+						large.add(entry);
+					} else {
+						small.add(entry);
+					}
+				}
+
+				// stale entries go before the extraction starts, pruning directories can not race with it
+				if (previous != null) {
+					for (String name : previous.entries.keySet()) {
+						if (!index.entries.containsKey(name)) {
+							Path stale = target.resolve(name).normalize();
+							if (stale.startsWith(target)) {
+								deleteStale(target, stale, directories);
+							}
+						}
+					}
+				}
+
+				for (ZipEntry entry : large) {
+					tasks.add(executor.submit(() -> {
+						extract(z, entry, target, modes);
+						return null;
+					}));
+				}
+				tasks.add(executor.submit(() -> {
+					for (ZipEntry entry : small) {
+						extract(z, entry, target, modes);
+					}
+					return null;
+				}));
+			}
+
+			for (Future<?> f : tasks) {
+				f.get();
+			}
+
+			for (Map.Entry<Path, Index> e : indices.entrySet()) {
+				e.getValue().write(e.getKey());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			for (ZipFile z : openFiles) {
+				z.close();
+			}
+		}
+	}
+
+	/**
+	 * Deletes a file no longer part of the jar and the parent directories it leaves empty, up to the target directory
+	 * and except the directories the jar still lists.
+	 */
+	private static void deleteStale(Path target, Path stale, Set<Path> directories) throws IOException {
+		Files.deleteIfExists(stale);
+		for (Path dir = stale.getParent(); !dir.equals(target) && !directories.contains(dir); dir = dir.getParent()) {
+			try {
+				Files.delete(dir);
+			} catch (DirectoryNotEmptyException | NoSuchFileException e) {
+				break;
+			}
+		}
+	}
+
+	private static Path resolve(Path target, ZipEntry entry) throws IOException {
+		Path ep = target.resolve(entry.getName()).normalize();
+		if (!ep.startsWith(target)) {
+			throw new IOException("Entry '" + entry.getName() + "' is outside of " + target);
+		}
+		return ep;
+	}
+
+	private static void extract(ZipFile z, ZipEntry entry, Path target, Map<String, Integer> modes) throws IOException {
+		Path ep = resolve(target, entry);
+		Files.createDirectories(ep.getParent());
+
+		byte[] buf = BUFFER.get();
+		try (InputStream in = z.getInputStream(entry);
+				OutputStream out = Files.newOutputStream(ep)) {
+			int l;
+			while ((l = in.read(buf)) != -1) {
+				out.write(buf, 0, l);
+			}
+		}
+
+		Integer mode = modes.get(entry.getName());
+		if (mode != null) {
+			setExecutable(ep, mode);
+		}
+		if (entry.getTime() != -1) {
+			Files.setLastModifiedTime(ep, FileTime.fromMillis(entry.getTime()));
+		}
+	}
+
+	private static void setExecutable(Path file, int mode) throws IOException {
+		PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+		if (view != null) {
+			Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+			if ((mode & 0100) != 0) {
+				permissions.add(PosixFilePermission.OWNER_EXECUTE);
+			}
+			if ((mode & 0010) != 0) {
+				permissions.add(PosixFilePermission.GROUP_EXECUTE);
+			}
+			if ((mode & 0001) != 0) {
+				permissions.add(PosixFilePermission.OTHERS_EXECUTE);
+			}
+			view.setPermissions(permissions);
+		} else {
+			File f = file.toFile();
+			f.setExecutable(true, (mode & 0011) == 0);
+		}
+	}
+
+	/**
+	 * {@link ZipEntry} does not expose the unix permissions stored in the external attributes, so they are read from
+	 * the central directory.
+	 *
+	 * @return the unix mode of all entries which are executable
+	 */
+	static Map<String, Integer> readUnixModes(Path zip) {
+		Map<String, Integer> modes = new HashMap<>();
+		try (FileChannel ch = FileChannel.open(zip, StandardOpenOption.READ)) {
+			long size = ch.size();
+			int tailSize = (int) Math.min(size, 0xFFFF + 22);
+			ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+			ch.read(tail, size - tailSize);
+
+			int eocd = -1;
+			for (int i = tailSize - 22; i >= 0; i--) {
+				if (tail.getInt(i) == EOCD_SIGNATURE) {
+					eocd = i;
+					break;
+				}
+			}
+			if (eocd == -1) {
+				return modes;
+			}
+
+			long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+			long cenOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+			if (cenOffset + cenSize > size || cenSize > Integer.MAX_VALUE) {
+				// ZIP64 or broken archive, executable bits are not restored
+				return modes;
+			}
+
+			ByteBuffer cen = ByteBuffer.allocate((int) cenSize).order(ByteOrder.LITTLE_ENDIAN);
+			ch.read(cen, cenOffset);
+			int pos = 0;
+			while (pos + 46 <= cenSize && cen.getInt(pos) == CEN_SIGNATURE) {
+				int madeBy = (cen.getShort(pos + 4) >> 8) & 0xFF;
+				int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+				int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+				int commentLength = cen.getShort(pos + 32) & 0xFFFF;
+				int mode = (cen.getInt(pos + 38) >>> 16) & 0xFFFF;
+
+				if (madeBy == UNIX_HOST && (mode & 0111) != 0) {
+					byte[] name = new byte[nameLength];
+					for (int i = 0; i < nameLength; i++) {
+						name[i] = cen.get(pos + 46 + i);
+					}
+					modes.put(new String(name, StandardCharsets.UTF_8), mode);
+				}
+				pos += 46 + nameLength + extraLength + commentLength;
+			}
+		} catch (IOException | IndexOutOfBoundsException e) {
+			// executable bits are an addition, the content itself is still extracted
+		}
+		return modes;
+	}
+
+	/**
+	 * The binary index of an exploded bundle, entries are identified by their CRC and uncompressed size.
+	 */
+	private static class Index {
+		final long jarSize;
+		final long jarModified;
+		final Map<String, long[]> entries = new HashMap<>();
+
+		Index(long jarSize, long jarModified) {
+			this.jarSize = jarSize;
+			this.jarModified = jarModified;
+		}
+
+		void add(String name, long crc, long size) {
+			entries.put(name, new long[] { crc, size });
+		}
+
+		boolean contains(String name, long crc, long size) {
+			long[] v = entries.get(name);
+			return v != null && v[0] == crc && v[1] == size;
+		}
+
+		static Index read(Path target) {
+			Path file = indexFile(target);
+			if (!Files.isRegularFile(file)) {
+				return null;
+			}
+
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+				if (in.readInt() != INDEX_VERSION) {
+					return null;
+				}
+				Index index = new Index(in.readLong(), in.readLong());
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					index.add(in.readUTF(), in.readInt() & 0xFFFFFFFFL, in.readLong());
+				}
+				return index;
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		void write(Path target) throws IOException {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile(target))))) {
+				out.writeInt(INDEX_VERSION);
+				out.writeLong(jarSize);
+				out.writeLong(jarModified);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, long[]> e : entries.entrySet()) {
+					out.writeUTF(e.getKey());
+					out.writeInt((int) e.getValue()[0]);
+					out.writeLong(e.getValue()[1]);
+				}
+			}
+		}
+	}
+
+	static void deleteRecursive(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+				Files.delete(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.exec;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.startlevel.BundleStartLevel;
+
+/**
+ * Activator of the profiling bundle {@link MVNBaseOSGiLaunchPlugin} injects into the bundles.info when profiling is
+ * enabled.
+ * <p>
+ * The class is never loaded by the mojo, it is copied into a generated bundle and runs inside the launched framework. It
+ * records for every bundle when it got resolved and started and how long its activator took. Once the configured
+ * condition is reached the bundles are written to the report sorted by activator time:
+ * </p>
+ * <ul>
+ * <li><code>framework</code> - the framework reached its start level (default)</li>
+ * <li><code>bundle:&lt;symbolic-name&gt;</code> - the given bundle is started</li>
+ * <li><code>service:&lt;object-class&gt;</code> - a service of the given type is registered</li>
+ * </ul>
+ */
+public class BundleProfiler implements BundleActivator, SynchronousBundleListener, FrameworkListener, ServiceListener {
+	static final String SYMBOLIC_NAME = "at.bestsolution.maven.osgi.exec.profiler";
+
+	static final String HEADER_REPORT = "Profile-Report";
+	static final String HEADER_UNTIL = "Profile-Until";
+
+	static final String UNTIL_FRAMEWORK = "framework";
+	static final String UNTIL_BUNDLE = "bundle:";
+	static final String UNTIL_SERVICE = "service:";
+
+	static final String REPORT_HEADER = "# bundle\tversion\tstartLevel\tlazy\tresolvedAtMs\tstartedAtMs\tactivatorMs";
+
+	private final Map<Long, Record> records = new ConcurrentHashMap<>();
+	private final AtomicBoolean reported = new AtomicBoolean();
+
+	private BundleContext context;
+	private Path report;
+	private String until;
+
+	@Override
+	public void start(BundleContext context) throws Exception {
+		this.context = context;
+		this.report = Paths.get(context.getBundle().getHeaders().get(HEADER_REPORT));
+		String u = context.getBundle().getHeaders().get(HEADER_UNTIL);
+		this.until = u == null || u.trim().isEmpty() ? UNTIL_FRAMEWORK : u.trim();
+
+		for (Bundle b : context.getBundles()) {
+			Record r = record(b);
+			if (b.getState() >= Bundle.RESOLVED) {
+				r.resolvedAt = -1;
+			}
+			if (b.getState() == Bundle.ACTIVE) {
+				r.startedAt = -1;
+			}
+		}
+
+		context.addBundleListener(this);
+		context.addFrameworkListener(this);
+
+		if (until.startsWith(UNTIL_SERVICE)) {
+			String type = until.substring(UNTIL_SERVICE.length());
+			try {
+				context.addServiceListener(this, "(" + Constants.OBJECTCLASS + "=" + type + ")");
+			} catch (InvalidSyntaxException e) {
+				throw new IllegalArgumentException("Invalid profile condition '" + until + "'", e);
+			}
+			if (context.getServiceReference(type) != null) {
+				writeReport();
+			}
+		} else if (until.startsWith(UNTIL_BUNDLE)) {
+			Bundle[] bundles = context.getBundles();
+			for (Bundle b : bundles) {
+				if (until.substring(UNTIL_BUNDLE.length()).equals(b.getSymbolicName()) && b.getState() == Bundle.ACTIVE) {
+					writeReport();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void stop(BundleContext context) throws Exception {
+		writeReport();
+	}
+
+	@Override
+	public void bundleChanged(BundleEvent event) {
+		Record r = record(event.getBundle());
+		switch (event.getType()) {
+		case BundleEvent.RESOLVED:
+			r.resolvedAt = uptime();
+			break;
+		case BundleEvent.LAZY_ACTIVATION:
+			r.lazy = true;
+			break;
+		case BundleEvent.STARTING:
+			r.starting = System.nanoTime();
+			break;
+		case BundleEvent.STARTED:
+			r.startedAt = uptime();
+			if (r.starting != 0) {
+				r.activatorNanos = System.nanoTime() - r.starting;
+			}
+			if (until.startsWith(UNTIL_BUNDLE) && until.substring(UNTIL_BUNDLE.length()).equals(r.symbolicName)) {
+				writeReport();
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void frameworkEvent(FrameworkEvent event) {
+		if (event.getType() == FrameworkEvent.STARTED && UNTIL_FRAMEWORK.equals(until)) {
+			writeReport();
+		}
+	}
+
+	@Override
+	public void serviceChanged(ServiceEvent event) {
+		if (event.getType() == ServiceEvent.REGISTERED) {
+			writeReport();
+		}
+	}
+
+	private Record record(Bundle b) {
+		return records.computeIfAbsent(b.getBundleId(), id -> {
+			Record r = new Record(b.getSymbolicName(), b.getVersion().toString());
+			BundleStartLevel level = b.adapt(BundleStartLevel.class);
+			r.startLevel = level == null ? -1 : level.getStartLevel();
+			r.lazy = Constants.ACTIVATION_LAZY.equals(b.getHeaders("").get(Constants.BUNDLE_ACTIVATIONPOLICY));
+			return r;
+		});
+	}
+
+	private void writeReport() {
+		if (!reported.compareAndSet(false, true)) {
+			return;
+		}
+
+		context.removeBundleListener(this);
+		context.removeFrameworkListener(this);
+		context.removeServiceListener(this);
+
+		List<Record> sorted = new ArrayList<>(records.values());
+		sorted.sort(Comparator.comparingLong((Record r) -> r.activatorNanos).reversed()
+				.thenComparingLong(r -> r.startedAt));
+
+		try {
+			Files.createDirectories(report.toAbsolutePath().getParent());
+			try (BufferedWriter w = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+				w.write("# condition: " + until + ", reached after " + uptime() + "ms");
+				w.newLine();
+				w.write(REPORT_HEADER);
+				w.newLine();
+				for (Record r : sorted) {
+					if (SYMBOLIC_NAME.equals(r.symbolicName) || r.symbolicName == null) {
+						continue;
+					}
+					w.write(r.symbolicName + "\t" + r.version + "\t" + r.startLevel + "\t" + r.lazy + "\t" + r.resolvedAt + "\t"
+							+ r.startedAt + "\t" + String.format(Locale.ROOT, "%.3f", r.activatorNanos / 1e6));
+					w.newLine();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Can not write the bundle profile to " + report + ": " + e);
+		}
+	}
+
+	private static long uptime() {
+		return ManagementFactory.getRuntimeMXBean().getUptime();
+	}
+
+	/**
+	 * Times are milliseconds since JVM start, <code>-1</code> for bundles which reached the state before the profiler
+	 * started and <code>0</code> for states that were never reached.
+	 */
+	private static class Record {
+		final String symbolicName;
+		final String version;
+		volatile int startLevel;
+		volatile boolean lazy;
+		volatile long resolvedAt;
+		volatile long startedAt;
+		volatile long starting;
+		volatile long activatorNanos;
+
+		Record(String symbolicName, String version) {
+			this.symbolicName = symbolicName;
+			this.version = version;
+		}
+	}
+}
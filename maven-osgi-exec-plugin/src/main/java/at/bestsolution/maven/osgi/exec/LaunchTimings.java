@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.exec;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Records how long the phases of an OSGi launch take, from scanning the artifacts up to the first output of the
+ * launched application.
+ */
+class LaunchTimings {
+	private final long origin = System.nanoTime();
+	private final List<Entry> entries = new ArrayList<>();
+
+	/**
+	 * Starts a phase which ends when the returned handle is closed, phases may be nested.
+	 *
+	 * @param name
+	 *            the name of the phase
+	 * @return the handle to end the phase
+	 */
+	Phase phase(String name) {
+		Entry e = new Entry(name, System.nanoTime() - origin);
+		synchronized (entries) {
+			entries.add(e);
+		}
+		return () -> e.duration = System.nanoTime() - origin - e.start;
+	}
+
+	/**
+	 * Records an instant, e.g. the first output of the launched process.
+	 *
+	 * @param name
+	 *            the name of the event
+	 */
+	void mark(String name) {
+		Entry e = new Entry(name, System.nanoTime() - origin);
+		e.duration = 0;
+		synchronized (entries) {
+			entries.add(e);
+		}
+	}
+
+	/**
+	 * Wraps a stream and {@link #mark(String) marks} the first byte written to it.
+	 */
+	OutputStream markFirstOutput(OutputStream delegate, String name) {
+		AtomicBoolean seen = new AtomicBoolean();
+		return new FilterOutputStream(delegate) {
+			@Override
+			public void write(int b) throws IOException {
+				first();
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				first();
+				out.write(b, off, len);
+			}
+
+			private void first() {
+				if (!seen.getAndSet(true)) {
+					mark(name);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Logs a summary and writes all phases as JSON.
+	 *
+	 * @param logger
+	 *            the logger for the summary
+	 * @param jsonFile
+	 *            the report file or <code>null</code> to only log the summary
+	 */
+	void report(Logger logger, Path jsonFile) {
+		List<Entry> copy;
+		synchronized (entries) {
+			copy = new ArrayList<>(entries);
+		}
+
+		logger.info("OSGi launch timings:");
+		for (Entry e : copy) {
+			if (e.duration < 0) {
+				continue;
+			}
+			if (e.duration == 0) {
+				logger.info(String.format("  %-24s at %8.1f ms", e.name, e.start / 1e6));
+			} else {
+				logger.info(String.format("  %-24s %8.1f ms", e.name, e.duration / 1e6));
+			}
+		}
+
+		if (jsonFile == null) {
+			return;
+		}
+
+		try {
+			Files.createDirectories(jsonFile.getParent());
+			try (BufferedWriter w = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
+				w.write("{\n  \"phases\": [");
+				for (int i = 0; i < copy.size(); i++) {
+					Entry e = copy.get(i);
+					w.write(i == 0 ? "\n" : ",\n");
+					w.write("    { \"name\": \"" + e.name.replace("\"", "\\\"") + "\", \"startMs\": " + e.start / 1000000
+							+ ", \"durationMs\": " + Math.max(e.duration, 0) / 1000000 + " }");
+				}
+				w.write("\n  ]\n}\n");
+			}
+		} catch (IOException e) {
+			logger.warn("Can not write the launch timings to " + jsonFile, e);
+		}
+	}
+
+	interface Phase extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	private static class Entry {
+		final String name;
+		final long start;
+		volatile long duration = -1;
+
+		Entry(String name, long start) {
+			this.name = name;
+			this.start = start;
+		}
+	}
+}
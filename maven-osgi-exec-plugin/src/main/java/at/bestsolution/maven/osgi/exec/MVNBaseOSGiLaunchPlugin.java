@@ -11,22 +11,32 @@
 package at.bestsolution.maven.osgi.exec;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.Set;
-import java.util.jar.JarFile;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipEntry;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
@@ -36,10 +46,16 @@ import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.logging.Logger;
 
+import at.bestsolution.maven.osgi.support.ManifestCache;
 import at.bestsolution.maven.osgi.support.OsgiBundleVerifier;
 
 public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 	private static final String LF = System.getProperty("line.separator");
+	private static final String FINGERPRINT_FILE = ".fingerprint";
+	/**
+	 * Referenced by name only, the class implements the OSGi API which is not available to the mojo
+	 */
+	private static final String PROFILER_CLASS = "at.bestsolution.maven.osgi.exec.BundleProfiler";
 	
 	@Parameter
 	protected List<String> programArguments;
@@ -49,9 +65,21 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 	
 	@Parameter
 	protected Map<String, Integer> startLevels;
+
+	/**
+	 * Properties file with start levels by symbolic name, e.g. written by the <code>optimize-start-levels</code> goal.
+	 * Entries of {@link #startLevels} take precedence.
+	 */
+	@Parameter(property = "exec.startLevelsFile")
+	private File startLevelsFile;
+
+	private Map<String, Integer> effectiveStartLevels;
 	
 	@Parameter(defaultValue = "${project}", required = true, readonly = true)
 	protected MavenProject project;
+
+	@Parameter(defaultValue = "${settings.localRepository}", readonly = true)
+	private File localRepository;
 	
 	@Parameter(defaultValue = "${project.build.directory}")
     private String projectBuildDir;
@@ -62,15 +90,58 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 	@Parameter
 	private boolean debug;
 
+	/**
+	 * Number of threads used to read the bundle manifests and to explode dir-shaped bundles, defaults to the number of
+	 * available processors
+	 */
+	@Parameter(property = "exec.scanThreads")
+	private int scanThreads;
+
+	/**
+	 * File the duration of the launch phases is written to as JSON
+	 */
+	@Parameter(property = "exec.timingsFile", defaultValue = "${project.build.directory}/osgi-launch-timings.json")
+	private File timingsFile;
+
+	/**
+	 * Inject a bundle into the launched framework which records resolve, start and activator time of every bundle, see
+	 * {@link BundleProfiler}
+	 */
+	@Parameter(property = "exec.profile")
+	private boolean profile;
+
+	/**
+	 * When the bundle profile is written: <code>framework</code>, <code>bundle:&lt;symbolic-name&gt;</code> or
+	 * <code>service:&lt;object-class&gt;</code>
+	 */
+	@Parameter(property = "exec.profileUntil", defaultValue = BundleProfiler.UNTIL_FRAMEWORK)
+	private String profileUntil;
+
+	/**
+	 * The report of the bundle profile, sorted by activator time
+	 */
+	@Parameter(property = "exec.profileReport", defaultValue = "${project.build.directory}/osgi-bundle-profile.txt")
+	protected File profileReport;
+
 	@Component
 	protected Logger logger;
 
+	/**
+	 * The bundles of the last {@link #generateConfigIni(MavenProject)} call
+	 */
+	protected List<Bundle> resolvedBundles;
+
+	/**
+	 * The duration of the launch phases, reported through {@link #reportTimings()}
+	 */
+	protected final LaunchTimings timings = new LaunchTimings();
+
 	private OsgiBundleVerifier osgiVerifier;
 
 
 	private OsgiBundleVerifier getOsgiVerifier() {
 		if (osgiVerifier == null) {
-			osgiVerifier = new OsgiBundleVerifier(logger);
+			osgiVerifier = new OsgiBundleVerifier(logger, ManifestCache.forLocalRepository(localRepository.toPath()));
 		}
 		return osgiVerifier;
 	}
@@ -88,22 +159,38 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 	}
 	
 	protected Path generateConfigIni(MavenProject project) {
-		Set<Bundle> bundles = project
-				.getArtifacts()
-				.stream()
-				.map( this::map )
-				.filter( Optional::isPresent)
-				.map( Optional::get)
-				.collect(Collectors.toSet());
-		
+		try (LaunchTimings.Phase phase = timings.phase("generateConfigIni")) {
+			return doGenerateConfigIni(project);
+		}
+	}
+
+	/**
+	 * @return the bundles of the project dependencies and the project itself
+	 */
+	protected List<Bundle> scanProjectBundles(MavenProject project) {
+		List<Bundle> bundles;
+		try (LaunchTimings.Phase phase = timings.phase("scan")) {
+			bundles = scanBundles(new ArrayList<>(project.getArtifacts()));
+		}
 		
 		if( project.getPackaging().equals("jar") ) {
 			Path binary = project.getArtifact().getFile().toPath();
 			bundles.add(new Bundle(getOsgiVerifier().getManifest(project.getArtifact()).get(),binary));
 		}
+		return bundles;
+	}
+
+	private Path doGenerateConfigIni(MavenProject project) {
+		List<Bundle> bundles = scanProjectBundles(project);
 		
 		Path p = Paths.get(System.getProperty("java.io.tmpdir")).resolve(project.getGroupId() + "-" + project.getArtifactId()).resolve(project.getArtifactId()).resolve("configuration");
 
+		if( profile ) {
+			bundles.add(generateProfilerBundle(p));
+		}
+		resolvedBundles = bundles;
+		logger.debug("Scanned bundle manifests: " + getOsgiVerifier().getManifestCache());
+
 		Optional<Bundle> simpleConfigurator = bundles.stream()
 				.filter(b -> "org.eclipse.equinox.simpleconfigurator".equals(b.symbolicName)).findFirst();
 
@@ -118,6 +205,19 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 		
 		if (simpleConfigurator.isPresent()) {
 			Path configIni = p.resolve("config.ini");
+			String fingerprint = fingerprint(bundles);
+			if( isUpToDate(p, fingerprint) ) {
+				logger.info("Bundle set unchanged, reusing configuration in " + p);
+				explodeBundles(bundles, p.resolve(".explode"));
+				return p;
+			}
+
+			try {
+				Files.deleteIfExists(p.resolve(FINGERPRINT_FILE));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+
 			try (BufferedWriter writer = Files.newBufferedWriter(configIni, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
 				Path bundlesInfo = generateBundlesInfo(p, bundles);
 
@@ -139,6 +239,12 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
+
+			try {
+				Files.write(p.resolve(FINGERPRINT_FILE), fingerprint.getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				logger.warn("Can not write the bundle set fingerprint to " + p, e);
+			}
 		} else {
 			throw new RuntimeException("Only 'org.eclipse.equinox.simpleconfigurator' is supported");
 		}
@@ -146,7 +252,188 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 		return p;
 	}
 	
-	private Path generateBundlesInfo(Path configurationDir, Set<Bundle> bundles) {
+	/**
+	 * Computes a fingerprint over everything that ends up in config.ini and bundles.info, including the modification
+	 * time of every bundle, so Equinox can reuse its persisted state when nothing changed.
+	 */
+	protected String fingerprint(List<Bundle> bundles) {
+		return fingerprint(bundles, true);
+	}
+
+	/**
+	 * @param includeModificationTime
+	 *            <code>false</code> to only fingerprint the layout of the bundle set, which stays the same when bundles
+	 *            are rebuilt in place
+	 */
+	protected String fingerprint(List<Bundle> bundles, boolean includeModificationTime) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Bundle b : bundles) {
+				StringBuilder w = new StringBuilder();
+				w.append(b.symbolicName).append(',');
+				w.append(b.version).append(',');
+				w.append(b.path.toAbsolutePath()).append(',');
+				w.append(b.startLevel).append(',');
+				w.append(b.autoStart).append(',');
+				w.append(b.dirShape);
+				if( includeModificationTime ) {
+					w.append(',').append(Files.getLastModifiedTime(b.path).toMillis());
+				}
+				w.append(LF);
+				digest.update(w.toString().getBytes(StandardCharsets.UTF_8));
+			}
+
+			StringBuilder fingerprint = new StringBuilder();
+			for (byte v : digest.digest()) {
+				fingerprint.append(String.format("%02x", v));
+			}
+			return fingerprint.toString();
+		} catch (NoSuchAlgorithmException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Logs the recorded launch phases and writes them to the configured timings file
+	 */
+	protected void reportTimings() {
+		timings.report(logger, timingsFile == null ? null : timingsFile.toPath());
+
+		if( profile ) {
+			reportProfile();
+		}
+	}
+
+	/**
+	 * Logs the slowest bundles of the report written by the {@link BundleProfiler}
+	 */
+	private void reportProfile() {
+		Path report = profileReport.toPath();
+		if( ! Files.exists(report) ) {
+			logger.warn("No bundle profile was written, the condition '" + profileUntil + "' was not reached");
+			return;
+		}
+
+		try {
+			List<String> lines = Files.readAllLines(report, StandardCharsets.UTF_8).stream()
+					.filter( l -> ! l.startsWith("#"))
+					.limit(10)
+					.collect(Collectors.toList());
+			logger.info("Slowest bundle activations (see " + report + "):");
+			for (String l : lines) {
+				String[] cols = l.split("\t");
+				logger.info(String.format("  %10s ms  %s (start level %s%s)", cols[6], cols[0], cols[2], Boolean.parseBoolean(cols[3]) ? ", lazy" : ""));
+			}
+			logger.info("Run the optimize-start-levels goal to derive <startLevels> from this profile");
+		} catch (IOException | ArrayIndexOutOfBoundsException e) {
+			logger.warn("Can not read the bundle profile " + report, e);
+		}
+	}
+
+	/**
+	 * Writes the profiling bundle below the given configuration directory. The jar is only rewritten if its content
+	 * changes, so an unchanged profile setup keeps the bundle set fingerprint stable.
+	 */
+	private Bundle generateProfilerBundle(Path configurationDir) {
+		Path jar = configurationDir.resolve(BundleProfiler.SYMBOLIC_NAME + ".jar");
+		try {
+			Files.deleteIfExists(profileReport.toPath());
+
+			Manifest m = new Manifest();
+			Attributes a = m.getMainAttributes();
+			a.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			a.putValue("Bundle-ManifestVersion", "2");
+			a.putValue("Bundle-SymbolicName", BundleProfiler.SYMBOLIC_NAME);
+			a.putValue("Bundle-Version", "1.0.0");
+			a.putValue("Bundle-Activator", PROFILER_CLASS);
+			a.putValue("Import-Package", "org.osgi.framework;version=\"1.6.0\",org.osgi.framework.startlevel;version=\"1.0.0\"");
+			a.putValue(BundleProfiler.HEADER_REPORT, profileReport.getAbsolutePath());
+			a.putValue(BundleProfiler.HEADER_UNTIL, profileUntil);
+
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			try (JarOutputStream out = new JarOutputStream(content, m)) {
+				for (String c : new String[] { PROFILER_CLASS, PROFILER_CLASS + "$Record" }) {
+					String name = c.replace('.', '/') + ".class";
+					out.putNextEntry(new ZipEntry(name));
+					try (InputStream in = getClass().getClassLoader().getResourceAsStream(name)) {
+						if( in == null ) {
+							throw new IOException("Missing profiler class " + name);
+						}
+						byte[] buf = new byte[8192];
+						int l;
+						while( (l = in.read(buf)) != -1 ) {
+							out.write(buf, 0, l);
+						}
+					}
+					out.closeEntry();
+				}
+			}
+
+			Files.createDirectories(configurationDir);
+			byte[] data = content.toByteArray();
+			if( ! Files.exists(jar) || ! Arrays.equals(data, Files.readAllBytes(jar)) ) {
+				Files.write(jar, data);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Can not create the profiling bundle", e);
+		}
+
+		logger.info("Profiling bundle activation until '" + profileUntil + "', report: " + profileReport);
+		return new Bundle(BundleProfiler.SYMBOLIC_NAME, "1.0.0", 1, jar, true, false);
+	}
+
+	private static boolean isUpToDate(Path configurationDir, String fingerprint) {
+		Path fingerprintFile = configurationDir.resolve(FINGERPRINT_FILE);
+		if( ! Files.exists(configurationDir.resolve("config.ini"))
+				|| ! Files.exists(configurationDir.resolve("org.eclipse.equinox.simpleconfigurator").resolve("bundles.info"))
+				|| ! Files.exists(fingerprintFile) ) {
+			return false;
+		}
+
+		try {
+			return fingerprint.equals(new String(Files.readAllBytes(fingerprintFile), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private int getParallelism() {
+		return scanThreads > 0 ? scanThreads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Reads the manifests of all artifacts concurrently. The returned list keeps the order of the given artifacts, so the
+	 * generated bundles.info is the same on every run.
+	 */
+	private List<Bundle> scanBundles(List<Artifact> artifacts) {
+		ForkJoinPool pool = new ForkJoinPool(getParallelism());
+		try {
+			return pool.submit(() -> artifacts
+					.parallelStream()
+					.map( this::map )
+					.filter( Optional::isPresent)
+					.map( Optional::get)
+					.collect(Collectors.toList())).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if( e.getCause() instanceof RuntimeException ) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private Path generateBundlesInfo(Path configurationDir, List<Bundle> bundles) {
+		try (LaunchTimings.Phase phase = timings.phase("generateBundlesInfo")) {
+			return doGenerateBundlesInfo(configurationDir, bundles);
+		}
+	}
+
+	private Path doGenerateBundlesInfo(Path configurationDir, List<Bundle> bundles) {
 		Path bundleInfo = configurationDir.resolve("org.eclipse.equinox.simpleconfigurator").resolve("bundles.info");
 		try {
 			Files.createDirectories(bundleInfo.getParent());
@@ -154,6 +441,8 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 			throw new RuntimeException(e);
 		}
 
+		explodeBundles(bundles, configurationDir.resolve(".explode"));
+
 		try (BufferedWriter writer = Files.newBufferedWriter(bundleInfo, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
 			writer.append("#encoding=UTF-8");
 			writer.append(LF);
@@ -179,44 +468,30 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 		return bundleInfo;
 	}
 	
-	private Path generateLocalPath(Bundle b, Path explodeDir) {
-		if( b.dirShape && Files.isRegularFile(b.path) ) {
-			Path p = explodeDir.resolve(b.symbolicName+"_"+b.version);
-			if( ! Files.exists(p) ) {
-				try(ZipFile z = new ZipFile(b.path.toFile()) ) {
-					z.stream().forEach( e -> {
-						Path ep = p.resolve(e.getName());
-						if( e.isDirectory() ) {
-							try {
-								Files.createDirectories(ep);
-							} catch (IOException e1) {
-								throw new RuntimeException(e1);
-							}
-						} else {
-							if( ! Files.exists(ep.getParent()) ) {
-								try {
-									Files.createDirectories(ep.getParent());
-								} catch (IOException e1) {
-									throw new RuntimeException(e1);
-								}
-							}
-							try(OutputStream out = Files.newOutputStream(ep);
-									InputStream in = z.getInputStream(e)) {
-								byte[] buf = new byte[1024];
-								int l;
-								while( (l = in.read(buf)) != -1 ) {
-									out.write(buf, 0, l);
-								}
-							} catch (IOException e2) {
-								throw new RuntimeException(e2);
-							}
-						}
-					});
-				} catch (Exception e) {
-					throw new RuntimeException(e);
+	/**
+	 * Explodes all dir-shaped bundles whose extraction below the given directory is missing or stale.
+	 */
+	private void explodeBundles(List<Bundle> bundles, Path explodeDir) {
+		Map<Path, Path> jars = new LinkedHashMap<>();
+		for (Bundle b : bundles) {
+			if( b.dirShape && Files.isRegularFile(b.path) ) {
+				Path p = generateLocalPath(b, explodeDir);
+				if( ! BundleExploder.isUpToDate(b.path, p) ) {
+					jars.put(b.path, p);
 				}
 			}
-			return p;
+		}
+
+		try (LaunchTimings.Phase phase = timings.phase("explode")) {
+			new BundleExploder(getParallelism()).explode(jars);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private Path generateLocalPath(Bundle b, Path explodeDir) {
+		if( b.dirShape && Files.isRegularFile(b.path) ) {
+			return explodeDir.resolve(b.symbolicName+"_"+b.version);
 		}
 		return b.path.toAbsolutePath();
 	}
@@ -239,8 +514,29 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 	}
 	
 
+	private synchronized Map<String, Integer> getStartLevels() {
+		if( effectiveStartLevels == null && startLevelsFile != null ) {
+			Properties p = new Properties();
+			try (InputStream in = Files.newInputStream(startLevelsFile.toPath())) {
+				p.load(in);
+			} catch (IOException e) {
+				throw new RuntimeException("Can not read the start levels from " + startLevelsFile, e);
+			}
+
+			effectiveStartLevels = new HashMap<>();
+			p.forEach( (k, v) -> effectiveStartLevels.put(k.toString(), Integer.valueOf(v.toString().trim())));
+			if( startLevels != null ) {
+				effectiveStartLevels.putAll(startLevels);
+			}
+		} else if( effectiveStartLevels == null ) {
+			effectiveStartLevels = startLevels;
+		}
+		return effectiveStartLevels;
+	}
+
 	private Integer getStartLevel(Manifest m) {
 		String name = bundleName(m);
+		Map<String, Integer> startLevels = getStartLevels();
 		if( startLevels != null ) {
 			return startLevels.get(name);
 		} else {
@@ -270,12 +566,21 @@ public abstract class MVNBaseOSGiLaunchPlugin extends AbstractMojo {
 		public final Path path;
 		public final boolean dirShape;
 		public final boolean autoStart;
+		/**
+		 * The manifest the bundle was created from, <code>null</code> for generated bundles
+		 */
+		public final Manifest manifest;
 		
 		public Bundle(Manifest m, Path path) {
-			this( bundleName(m), m.getMainAttributes().getValue("Bundle-Version"), getStartLevel(m), path, getStartLevel(m) != null, "dir".equals(m.getMainAttributes().getValue("Eclipse-BundleShape")));
+			this( bundleName(m), m.getMainAttributes().getValue("Bundle-Version"), getStartLevel(m), path, getStartLevel(m) != null, "dir".equals(m.getMainAttributes().getValue("Eclipse-BundleShape")), m);
 		}
 		
 		public Bundle(String symbolicName, String version, Integer startLevel, Path path, boolean autoStart, boolean dirShape) {
+			this(symbolicName, version, startLevel, path, autoStart, dirShape, null);
+		}
+
+		private Bundle(String symbolicName, String version, Integer startLevel, Path path, boolean autoStart, boolean dirShape, Manifest manifest) {
+			this.manifest = manifest;
 			this.symbolicName = symbolicName;
 			this.version = version;
 			this.startLevel = startLevel == null ? 4 : startLevel;
@@ -12,6 +12,7 @@ package at.bestsolution.maven.osgi.exec;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -21,6 +22,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
@@ -51,6 +53,19 @@ public class MVNExecOSGiLaunch extends MVNBaseOSGiLaunchPlugin {
 	@Parameter(readonly = true, required = true, defaultValue = "${basedir}")
 	private File basedir;
 
+	/**
+	 * Use a class-data-sharing archive: the first launch of a bundle set is the training run which dumps the archive on
+	 * exit, later launches map it. Requires Java 13 or newer.
+	 */
+	@Parameter(property = "exec.cds")
+	private boolean cds;
+
+	/**
+	 * Directory the class-data-sharing archives are stored in
+	 */
+	@Parameter(property = "exec.cdsDirectory", defaultValue = "${project.build.directory}/osgi-cds")
+	private File cdsDirectory;
+
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		Path ini = generateConfigIni(project);
@@ -68,6 +83,8 @@ public class MVNExecOSGiLaunch extends MVNBaseOSGiLaunchPlugin {
 		if (!Strings.isNullOrEmpty(argsProp)) {
 			handleSystemPropertyArguments(argsProp, commandArguments);
 		}
+		Path cdsArchive = cds ? handleClassDataSharing(commandArguments) : null;
+		boolean cdsTraining = cdsArchive != null && ! Files.exists(cdsArchive);
 		commandArguments.add("-jar");
 		commandArguments.add(launcherJar.get().toPath().toAbsolutePath().toString());
 				
@@ -86,22 +103,83 @@ public class MVNExecOSGiLaunch extends MVNBaseOSGiLaunchPlugin {
 		Executor exec = new DefaultExecutor();
 		exec.setWorkingDirectory(workingDirectory);
 
-		PumpStreamHandler psh = new PumpStreamHandler(System.out, System.err, System.in);
+		PumpStreamHandler psh = new PumpStreamHandler(timings.markFirstOutput(System.out, "firstOutput"), System.err, System.in);
 		exec.setStreamHandler(psh);
 		psh.start();
 
-		try {
+		try (LaunchTimings.Phase phase = timings.phase("launch")) {
 			exec.execute(commandLine, enviro);
 
+			if( cdsTraining && Files.exists(cdsArchive) ) {
+				logger.info("Created class-data-sharing archive " + cdsArchive);
+			}
 		} catch (IOException e) {
 			logger.error("Error on executing commandline: " + commandLine, e);
-
+			if( cdsTraining ) {
+				// an archive dumped by a failed run must not be picked up by later launches
+				deleteArchive(cdsArchive);
+			}
 		} finally {
 			try {
 				psh.stop();
 			} catch (IOException e) {
 				logger.warn("Couldn't stop reading the process output.", e);
 			}
+			reportTimings();
+		}
+	}
+
+	/**
+	 * Adds the flags to use or to train the class-data-sharing archive of the current bundle set. The archive is keyed on
+	 * the layout of the bundle set and the JVM, rebuilding a bundle in place keeps using it as bundle classes are loaded by
+	 * the framework and not archived anyway.
+	 *
+	 * @return the archive or <code>null</code> if the JVM does not support dynamic archives
+	 */
+	private Path handleClassDataSharing(List<String> commandArguments) {
+		if( javaFeatureVersion() < 13 ) {
+			logger.warn("Class-data-sharing archives require Java 13 or newer, launching without");
+			return null;
+		}
+
+		String key = fingerprint(resolvedBundles, false).substring(0, 16) + "-" + System.getProperty("java.vendor").replaceAll("\\W", "") + "-" + System.getProperty("java.version").replaceAll("[^\\w.]", "");
+		Path dir = cdsDirectory.toPath();
+		Path archive = dir.resolve(key + ".jsa");
+
+		try {
+			Files.createDirectories(dir);
+			try (Stream<Path> s = Files.list(dir)) {
+				s.filter( p -> p.getFileName().toString().endsWith(".jsa") && ! p.equals(archive) ).forEach(this::deleteArchive);
+			}
+		} catch (IOException e) {
+			logger.warn("Can not clean up " + dir, e);
+		}
+
+		if( Files.exists(archive) ) {
+			logger.info("Using class-data-sharing archive " + archive);
+			commandArguments.add("-XX:SharedArchiveFile=" + archive);
+			commandArguments.add("-Xshare:auto");
+		} else {
+			logger.info("No class-data-sharing archive for this bundle set, this launch is the training run");
+			commandArguments.add("-XX:ArchiveClassesAtExit=" + archive);
+		}
+		return archive;
+	}
+
+	private void deleteArchive(Path archive) {
+		try {
+			Files.deleteIfExists(archive);
+		} catch (IOException e) {
+			logger.warn("Can not delete class-data-sharing archive " + archive, e);
+		}
+	}
+
+	private static int javaFeatureVersion() {
+		String v = System.getProperty("java.specification.version");
+		try {
+			return Integer.parseInt(v.startsWith("1.") ? v.substring(2) : v);
+		} catch (NumberFormatException e) {
+			return 0;
 		}
 	}
 
@@ -10,17 +10,27 @@
  *******************************************************************************/
 package at.bestsolution.maven.osgi.exec;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.TreeMap;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -37,12 +47,42 @@ public class MVNJavaOSGiLaunch extends MVNBaseOSGiLaunchPlugin {
 
 	private static final String EQUINOX_LAUNCHER_MAIN_CLASS = "org.eclipse.equinox.launcher.Main";
 
+	private static final String DAEMON_CONTROL_FILE = "daemon.control";
+	private static final String DAEMON_LOG_FILE = "daemon.log";
+
 	@Parameter(property = "exec.args")
 	private String commandlineArgs;
 
+	/**
+	 * Keep the launched framework alive in a background process and only update the changed bundles on subsequent
+	 * runs, see {@link OSGiLaunchDaemon}
+	 */
+	@Parameter(property = "exec.daemon")
+	private boolean daemon;
+
+	/**
+	 * Time in seconds to wait for a newly forked daemon to publish its control file, or for a replaced one to stop
+	 */
+	@Parameter(property = "exec.daemonStartTimeout", defaultValue = "60")
+	private int daemonStartTimeout;
+
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		Path ini = generateConfigIni(project);
 		
+		if( daemon ) {
+			List<String> cmd = new ArrayList<>();
+			cmd.add("-configuration");
+			cmd.add("file:" + ini.toString());
+			cmd.addAll(programArguments);
+			appendCommandLineArgumentsTo(cmd);
+
+			try (LaunchTimings.Phase phase = timings.phase("launch")) {
+				runInDaemon(ini, cmd);
+			}
+			reportTimings();
+			return;
+		}
+
 		Optional<URL> launcherJar = project.getArtifacts().stream()
 				.filter(a -> "org.eclipse.equinox.launcher".equals(a.getArtifactId())).findFirst()
 				.map(a -> {
@@ -77,11 +117,127 @@ public class MVNJavaOSGiLaunch extends MVNBaseOSGiLaunchPlugin {
 			}
 		};
 		t.setContextClassLoader(l);
-		t.start();
-		try {
+
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(timings.markFirstOutput(out, "firstOutput"), true));
+		try (LaunchTimings.Phase phase = timings.phase("launch")) {
+			t.start();
 			t.join();
 		} catch (InterruptedException e) {
 			logger.error("Error on waiting for Equinox launcher to finish.", e);
+		} finally {
+			System.setOut(out);
+		}
+		reportTimings();
+	}
+
+	private void runInDaemon(Path ini, List<String> cmd) throws MojoExecutionException {
+		Path controlFile = ini.getParent().resolve(DAEMON_CONTROL_FILE);
+		String key = daemonKey(cmd);
+		String command = OSGiLaunchDaemon.CMD_RUN + " " + key;
+
+		String reply = OSGiLaunchDaemon.request(controlFile, command);
+		if( reply == null || reply.startsWith(OSGiLaunchDaemon.REPLY_RESTART) ) {
+			if( reply != null ) {
+				logger.info("Bundle set or launch arguments changed, restarting the OSGi daemon");
+				awaitDaemonExit(controlFile);
+			}
+			startDaemon(ini, controlFile, key, cmd);
+			reply = OSGiLaunchDaemon.request(controlFile, command);
+		}
+
+		if( reply == null || ! reply.startsWith(OSGiLaunchDaemon.REPLY_OK) ) {
+			throw new MojoExecutionException("OSGi daemon failed: " + reply + ", see " + ini.getParent().resolve(DAEMON_LOG_FILE));
+		}
+		logger.info("OSGi daemon updated " + reply.substring(OSGiLaunchDaemon.REPLY_OK.length()).trim() + " bundle(s)");
+	}
+
+	/**
+	 * A running daemon is only reused if it was forked with the same bundle layout, launcher arguments and system
+	 * properties
+	 */
+	private String daemonKey(List<String> cmd) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(("layout=" + fingerprint(resolvedBundles, false) + "\n").getBytes(StandardCharsets.UTF_8));
+			for (String c : cmd) {
+				digest.update(("arg=" + c + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+			if( vmProperties != null ) {
+				new TreeMap<>(vmProperties).forEach( (k, v) -> digest.update(("property=" + k + "=" + v + "\n").getBytes(StandardCharsets.UTF_8)));
+			}
+
+			StringBuilder key = new StringBuilder();
+			for (byte v : digest.digest()) {
+				key.append(String.format("%02x", v));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Waits until the daemon which replied {@value OSGiLaunchDaemon#REPLY_RESTART} has shut down its framework, a new
+	 * daemon must not use the configuration area before
+	 */
+	private void awaitDaemonExit(Path controlFile) throws MojoExecutionException {
+		long end = System.currentTimeMillis() + daemonStartTimeout * 1000L;
+		try {
+			while( Files.exists(controlFile) ) {
+				if( System.currentTimeMillis() > end ) {
+					throw new MojoExecutionException("OSGi daemon did not stop within " + daemonStartTimeout + "s, see " + controlFile.resolveSibling(DAEMON_LOG_FILE));
+				}
+				Thread.sleep(100);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while waiting for the OSGi daemon to stop", e);
+		}
+	}
+
+	private void startDaemon(Path ini, Path controlFile, String key, List<String> cmd) throws MojoExecutionException {
+		Optional<Bundle> equinox = resolvedBundles.stream().filter(b -> "org.eclipse.osgi".equals(b.symbolicName)).findFirst();
+		if( ! equinox.isPresent() ) {
+			throw new MojoExecutionException("The daemon mode requires 'org.eclipse.osgi' in the dependencies");
+		}
+
+		try {
+			Files.deleteIfExists(controlFile);
+
+			String pluginJar = Paths.get(OSGiLaunchDaemon.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+
+			List<String> command = new ArrayList<>();
+			command.add(System.getProperty("java.home") + "/bin/java");
+			if( vmProperties != null ) {
+				vmProperties.forEach( (k, v) -> command.add("-D" + k + "=" + v));
+			}
+			command.add("-cp");
+			command.add(pluginJar + File.pathSeparator + equinox.get().path.toAbsolutePath());
+			command.add(OSGiLaunchDaemon.class.getName());
+			command.add(controlFile.toString());
+			command.add(key);
+			command.addAll(cmd);
+
+			File log = ini.getParent().resolve(DAEMON_LOG_FILE).toFile();
+			new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+				.start();
+			logger.info("Started OSGi daemon, output is written to " + log);
+
+			long end = System.currentTimeMillis() + daemonStartTimeout * 1000L;
+			while( ! Files.exists(controlFile) ) {
+				if( System.currentTimeMillis() > end ) {
+					throw new MojoExecutionException("OSGi daemon did not start within " + daemonStartTimeout + "s, see " + log);
+				}
+				Thread.sleep(100);
+			}
+		} catch (IOException | URISyntaxException e) {
+			throw new MojoExecutionException("Can not start the OSGi daemon", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while waiting for the OSGi daemon", e);
 		}
 	}
 
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.exec;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Manifest;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+/**
+ * Derives the <code>startLevels</code> configuration from a bundle profile recorded with <code>exec.profile</code>,
+ * see {@link StartLevelOptimizer}. The profile should be recorded without <code>startLevels</code> so every bundle
+ * that may need activation got started.
+ */
+@Mojo(name = "optimize-start-levels", requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
+public class MVNOptimizeStartLevels extends MVNBaseOSGiLaunchPlugin {
+	private static final String LF = System.getProperty("line.separator");
+
+	/**
+	 * Activator time in ms from which a bundle nothing depends on is moved to a later start level
+	 */
+	@Parameter(property = "exec.slowActivatorMs", defaultValue = "50")
+	private double slowActivatorMs;
+
+	/**
+	 * The file the computed start levels are written to, pass it as <code>exec.startLevelsFile</code> to the launch
+	 * goals to use it
+	 */
+	@Parameter(property = "exec.optimizedStartLevelsFile", defaultValue = "${project.build.directory}/osgi-start-levels.properties")
+	private File outputFile;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		if( ! profileReport.exists() ) {
+			throw new MojoFailureException("No bundle profile at " + profileReport + ", launch with -Dexec.profile=true first");
+		}
+
+		Map<String, Double> profile;
+		try {
+			profile = StartLevelOptimizer.readProfile(profileReport.toPath());
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can not read the bundle profile " + profileReport, e);
+		}
+
+		Map<String, Manifest> manifests = new HashMap<>();
+		for (Bundle b : scanProjectBundles(project)) {
+			if( b.manifest != null ) {
+				manifests.put(b.symbolicName, b.manifest);
+			}
+		}
+
+		Map<String, Integer> levels = new StartLevelOptimizer(manifests, profile, slowActivatorMs).optimize();
+
+		try {
+			Files.createDirectories(outputFile.toPath().toAbsolutePath().getParent());
+			try (BufferedWriter w = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)) {
+				w.write("# Computed from " + profileReport.getName() + ", " + levels.size() + " of " + manifests.size() + " bundles are started eagerly");
+				w.write(LF);
+				for (Map.Entry<String, Integer> e : levels.entrySet()) {
+					w.write(e.getKey() + "=" + e.getValue());
+					w.write(LF);
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Can not write the start levels to " + outputFile, e);
+		}
+
+		StringBuilder xml = new StringBuilder("<startLevels>" + LF);
+		levels.forEach( (k, v) -> xml.append("\t<" + k + ">" + v + "</" + k + ">" + LF));
+		xml.append("</startLevels>");
+
+		logger.info(levels.size() + " of " + manifests.size() + " bundles need to be started eagerly");
+		logger.info("Use -Dexec.startLevelsFile=" + outputFile + " or add to the plugin configuration:" + LF + xml);
+	}
+}
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.exec;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an Equinox framework alive between Maven invocations of {@code exec-osgi-java}.
+ * <p>
+ * The daemon is forked by {@link MVNJavaOSGiLaunch} with the plug-in jar and {@code org.eclipse.osgi} on its class path
+ * and talks to the mojo through a local socket. Port and access token are published in a control file. Every
+ * {@value #CMD_RUN} request updates and refreshes the bundles whose jar (or exploded directory index) changed since the
+ * last run and then runs the application again. The OSGi API is accessed reflectively so the plug-in does not depend on
+ * a specific framework version.
+ * </p>
+ * <p>
+ * Arguments: {@code <control-file> <daemon-key> <launcher arguments...>}, a {@value #CMD_RUN} request with a different
+ * key makes the daemon reply {@value #REPLY_RESTART} and terminate.
+ * </p>
+ */
+public class OSGiLaunchDaemon {
+	static final String CMD_RUN = "RUN";
+	static final String CMD_STOP = "STOP";
+
+	static final String REPLY_OK = "OK";
+	static final String REPLY_RESTART = "RESTART";
+	static final String REPLY_ERROR = "ERROR";
+
+	private static final String ECLIPSE_STARTER = "org.eclipse.core.runtime.adaptor.EclipseStarter";
+	private static final String FRAMEWORK_WIRING = "org.osgi.framework.wiring.FrameworkWiring";
+	private static final String FRAMEWORK_LISTENER = "org.osgi.framework.FrameworkListener";
+	/**
+	 * {@code org.osgi.framework.FrameworkEvent.PACKAGES_REFRESHED}
+	 */
+	private static final int PACKAGES_REFRESHED = 0x00000004;
+	private static final long REFRESH_TIMEOUT_SECONDS = 60;
+
+	private final Path controlFile;
+	private final String fingerprint;
+	private final String[] args;
+	private final String token;
+
+	private final Map<Long, Long> modificationTimes = new HashMap<>();
+
+	private Class<?> starter;
+	private Object context;
+
+	OSGiLaunchDaemon(Path controlFile, String fingerprint, String[] args) {
+		this.controlFile = controlFile;
+		this.fingerprint = fingerprint;
+		this.args = args;
+
+		byte[] t = new byte[16];
+		new SecureRandom().nextBytes(t);
+		StringBuilder b = new StringBuilder();
+		for (byte v : t) {
+			b.append(String.format("%02x", v));
+		}
+		this.token = b.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: " + OSGiLaunchDaemon.class.getName() + " <control-file> <fingerprint> [launcher arguments]");
+			System.exit(1);
+		}
+		new OSGiLaunchDaemon(Paths.get(args[0]), args[1], Arrays.copyOfRange(args, 2, args.length)).run();
+		System.exit(0);
+	}
+
+	/**
+	 * The control file is removed only after the framework has shut down and released the configuration area, so a
+	 * replacement daemon can be forked as soon as it is gone.
+	 */
+	private void run() throws Exception {
+		System.setProperty("osgi.noShutdown", "true");
+		System.setProperty("eclipse.allowAppRelaunch", "true");
+
+		starter = Class.forName(ECLIPSE_STARTER);
+		context = starter.getMethod("startup", String[].class, Runnable.class).invoke(null, args, null);
+		recordModificationTimes();
+
+		try {
+			try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+				publish(server.getLocalPort());
+				while (true) {
+					try (Socket s = server.accept()) {
+						if (!handle(s)) {
+							break;
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			} finally {
+				starter.getMethod("shutdown").invoke(null);
+			}
+		} finally {
+			Files.deleteIfExists(controlFile);
+		}
+	}
+
+	/**
+	 * Writes port and token to the control file. It is readable by the owner only, as the token grants control over the
+	 * daemon, and is moved into place complete so the mojo never reads a partial file.
+	 */
+	private void publish(int port) throws IOException {
+		Path tmp = controlFile.resolveSibling(controlFile.getFileName() + ".tmp");
+		Files.deleteIfExists(tmp);
+		try {
+			Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			Files.createFile(tmp);
+			File f = tmp.toFile();
+			f.setReadable(false, false);
+			f.setReadable(true, true);
+			f.setWritable(false, false);
+			f.setWritable(true, true);
+		}
+		try {
+			Files.write(tmp, (port + "\n" + token + "\n" + fingerprint + "\n").getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(tmp, controlFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, controlFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Sends a command to the daemon published in the given control file.
+	 *
+	 * @return the reply of the daemon or <code>null</code> if no daemon is reachable
+	 */
+	static String request(Path controlFile, String command) {
+		if (!Files.isRegularFile(controlFile)) {
+			return null;
+		}
+
+		try {
+			List<String> lines = Files.readAllLines(controlFile, StandardCharsets.UTF_8);
+			if (lines.size() < 2) {
+				return null;
+			}
+			try (Socket s = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(lines.get(0).trim()))) {
+				PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+				out.println(lines.get(1).trim());
+				out.println(command);
+				return new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)).readLine();
+			}
+		} catch (IOException | NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the daemon has to terminate
+	 */
+	private boolean handle(Socket s) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+		PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+
+		if (!token.equals(in.readLine())) {
+			out.println(REPLY_ERROR + " invalid token");
+			return true;
+		}
+
+		String[] command = String.valueOf(in.readLine()).split(" ");
+		switch (command[0]) {
+		case CMD_STOP:
+			out.println(REPLY_OK);
+			return false;
+		case CMD_RUN:
+			if (command.length < 2 || !fingerprint.equals(command[1])) {
+				out.println(REPLY_RESTART);
+				return false;
+			}
+			try {
+				int updated = updateChangedBundles();
+				runApplication();
+				out.println(REPLY_OK + " " + updated);
+			} catch (Exception e) {
+				e.printStackTrace();
+				out.println(REPLY_ERROR + " " + e);
+			}
+			return true;
+		default:
+			out.println(REPLY_ERROR + " unknown command " + command[0]);
+			return true;
+		}
+	}
+
+	private int updateChangedBundles() throws Exception {
+		List<Object> changed = new ArrayList<>();
+		for (Object bundle : getBundles()) {
+			long id = (Long) invoke(bundle, "getBundleId");
+			Long previous = modificationTimes.get(id);
+			Long current = modificationTime(bundle);
+			if (previous != null && current != null && !previous.equals(current)) {
+				System.out.println("Updating " + invoke(bundle, "getSymbolicName"));
+				invoke(bundle, "update");
+				changed.add(bundle);
+			}
+		}
+
+		if (!changed.isEmpty()) {
+			refresh(changed);
+		}
+		recordModificationTimes();
+		return changed.size();
+	}
+
+	private void refresh(List<Object> bundles) throws Exception {
+		ClassLoader loader = context.getClass().getClassLoader();
+		Class<?> wiringClass = Class.forName(FRAMEWORK_WIRING, true, loader);
+		Class<?> listenerClass = Class.forName(FRAMEWORK_LISTENER, true, loader);
+
+		Object systemBundle = method(context, "getBundle", long.class).invoke(context, 0L);
+		Object wiring = method(systemBundle, "adapt", Class.class).invoke(systemBundle, wiringClass);
+
+		// refreshBundles is asynchronous, the application must not run before the new wirings are in place
+		CountDownLatch refreshed = new CountDownLatch(1);
+		Object listener = Proxy.newProxyInstance(loader, new Class<?>[] { listenerClass }, (proxy, m, margs) -> {
+			switch (m.getName()) {
+			case "frameworkEvent":
+				if ((Integer) invoke(margs[0], "getType") == PACKAGES_REFRESHED) {
+					refreshed.countDown();
+				}
+				return null;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == margs[0];
+			default:
+				return "RefreshListener";
+			}
+		});
+
+		Object listeners = Array.newInstance(listenerClass, 1);
+		Array.set(listeners, 0, listener);
+		method(wiring, "refreshBundles", Collection.class, listeners.getClass()).invoke(wiring, bundles, listeners);
+		if (!refreshed.await(REFRESH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("Refreshing the updated bundles did not complete within " + REFRESH_TIMEOUT_SECONDS + "s");
+		}
+	}
+
+	private void runApplication() throws Exception {
+		if (Boolean.parseBoolean((String) method(context, "getProperty", String.class).invoke(context, "eclipse.ignoreApp"))) {
+			return;
+		}
+
+		try {
+			starter.getMethod("run", Object.class).invoke(null, (Object) null);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private void recordModificationTimes() throws Exception {
+		modificationTimes.clear();
+		for (Object bundle : getBundles()) {
+			Long time = modificationTime(bundle);
+			if (time != null) {
+				modificationTimes.put((Long) invoke(bundle, "getBundleId"), time);
+			}
+		}
+	}
+
+	private Object[] getBundles() throws Exception {
+		return (Object[]) invoke(context, "getBundles");
+	}
+
+	/**
+	 * Exploded bundles are tracked through the index the {@link BundleExploder} rewrites next to the directory on every
+	 * change.
+	 */
+	private static Long modificationTime(Object bundle) throws Exception {
+		Path p = toPath((String) invoke(bundle, "getLocation"));
+		if (p == null) {
+			return null;
+		}
+		if (Files.isDirectory(p)) {
+			p = p.resolveSibling(p.getFileName() + BundleExploder.INDEX_SUFFIX);
+		}
+		return Files.exists(p) ? Files.getLastModifiedTime(p).toMillis() : null;
+	}
+
+	static Path toPath(String location) {
+		String l = location;
+		if (l.startsWith("reference:")) {
+			l = l.substring("reference:".length());
+		}
+		if (!l.startsWith("file:")) {
+			return null;
+		}
+		try {
+			return Paths.get(URI.create(l.replace(" ", "%20")));
+		} catch (IllegalArgumentException e) {
+			return Paths.get(l.substring("file:".length()));
+		}
+	}
+
+	private static Object invoke(Object target, String name) throws Exception {
+		return method(target, name).invoke(target);
+	}
+
+	private static Method method(Object target, String name, Class<?>... types) throws NoSuchMethodException {
+		Method m = target.getClass().getMethod(name, types);
+		m.setAccessible(true);
+		return m;
+	}
+}
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.exec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Computes start levels from a {@link BundleProfiler} report and the Import-Package/Require-Bundle graph of the
+ * bundles.
+ * <p>
+ * Only bundles the profile saw starting and which have something to activate - a Bundle-Activator or declarative
+ * services - are started eagerly, lazy bundles are left to the framework. The eager bundles are then placed on the
+ * levels Equinox processes by default (1 to 6):
+ * </p>
+ * <ul>
+ * <li>1 and 2 - the framework infrastructure, see {@link #INFRASTRUCTURE}</li>
+ * <li>3 - bundles other eagerly started bundles depend on</li>
+ * <li>4 - all other bundles</li>
+ * <li>5 - slow bundles no other eagerly started bundle depends on</li>
+ * </ul>
+ */
+class StartLevelOptimizer {
+	static final int PROVIDER_LEVEL = 3;
+	static final int DEFAULT_LEVEL = 4;
+	static final int SLOW_LEVEL = 5;
+
+	/**
+	 * Bundles whose level is fixed because the runtime needs them before anything else
+	 */
+	static final Map<String, Integer> INFRASTRUCTURE;
+
+	static {
+		Map<String, Integer> m = new HashMap<>();
+		m.put("org.eclipse.equinox.simpleconfigurator", 1);
+		m.put("org.eclipse.equinox.common", 2);
+		m.put("org.eclipse.equinox.ds", 2);
+		m.put("org.apache.felix.scr", 2);
+		m.put("org.eclipse.equinox.event", 2);
+		m.put("org.eclipse.core.runtime", 4);
+		m.put("org.eclipse.osgi", -1);
+		INFRASTRUCTURE = Collections.unmodifiableMap(m);
+	}
+
+	private final Map<String, Manifest> manifests;
+	private final Map<String, Double> activatorTimes;
+	private final double slowThreshold;
+
+	/**
+	 * @param manifests
+	 *            the manifests of all bundles by symbolic name
+	 * @param activatorTimes
+	 *            the activator time in ms of the bundles the profile saw starting
+	 * @param slowThreshold
+	 *            activator time in ms from which a bundle is considered slow
+	 */
+	StartLevelOptimizer(Map<String, Manifest> manifests, Map<String, Double> activatorTimes, double slowThreshold) {
+		this.manifests = manifests;
+		this.activatorTimes = activatorTimes;
+		this.slowThreshold = slowThreshold;
+	}
+
+	/**
+	 * Reads the activator times from a report written by the {@link BundleProfiler}.
+	 *
+	 * @return the activator time in ms by symbolic name for all bundles which got started
+	 */
+	static Map<String, Double> readProfile(Path report) throws IOException {
+		Map<String, Double> rv = new HashMap<>();
+		for (String l : Files.readAllLines(report, StandardCharsets.UTF_8)) {
+			if (l.startsWith("#") || l.trim().isEmpty()) {
+				continue;
+			}
+			String[] cols = l.split("\t");
+			if (cols.length < 7) {
+				throw new IOException("Invalid bundle profile line '" + l + "'");
+			}
+			// started before the profiler (-1) or in the profiled phase
+			if (!"0".equals(cols[5])) {
+				rv.put(cols[0], Double.parseDouble(cols[6]));
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * @return the start level of every bundle to start eagerly, sorted by symbolic name
+	 */
+	Map<String, Integer> optimize() {
+		Set<String> eager = new HashSet<>();
+		for (String name : activatorTimes.keySet()) {
+			Manifest m = manifests.get(name);
+			if (INFRASTRUCTURE.containsKey(name) || (m != null && needsActivation(m))) {
+				eager.add(name);
+			}
+		}
+
+		Map<String, Set<String>> dependencies = dependencies();
+		Set<String> providers = new HashSet<>();
+		for (String name : eager) {
+			for (String d : dependencies.getOrDefault(name, Collections.emptySet())) {
+				if (eager.contains(d) && !d.equals(name)) {
+					providers.add(d);
+				}
+			}
+		}
+
+		Map<String, Integer> levels = new TreeMap<>();
+		for (String name : eager) {
+			if (INFRASTRUCTURE.containsKey(name)) {
+				levels.put(name, INFRASTRUCTURE.get(name));
+			} else if (providers.contains(name)) {
+				levels.put(name, PROVIDER_LEVEL);
+			} else if (activatorTimes.get(name) >= slowThreshold) {
+				levels.put(name, SLOW_LEVEL);
+			} else {
+				levels.put(name, DEFAULT_LEVEL);
+			}
+		}
+		return levels;
+	}
+
+	private static boolean needsActivation(Manifest m) {
+		Attributes a = m.getMainAttributes();
+		if ("lazy".equals(firstElement(a.getValue("Bundle-ActivationPolicy")))) {
+			return false;
+		}
+		if (a.getValue("Fragment-Host") != null) {
+			return false;
+		}
+		return a.getValue("Bundle-Activator") != null || a.getValue("Service-Component") != null;
+	}
+
+	/**
+	 * @return the bundles each bundle imports packages from or requires, by symbolic name
+	 */
+	private Map<String, Set<String>> dependencies() {
+		Map<String, List<String>> exporters = new HashMap<>();
+		for (Map.Entry<String, Manifest> e : manifests.entrySet()) {
+			for (String p : mandatoryElements(e.getValue().getMainAttributes().getValue("Export-Package"))) {
+				exporters.computeIfAbsent(p, k -> new ArrayList<>()).add(e.getKey());
+			}
+		}
+
+		Map<String, Set<String>> rv = new HashMap<>();
+		for (Map.Entry<String, Manifest> e : manifests.entrySet()) {
+			Attributes a = e.getValue().getMainAttributes();
+			Set<String> deps = new HashSet<>();
+			for (String p : mandatoryElements(a.getValue("Import-Package"))) {
+				deps.addAll(exporters.getOrDefault(p, Collections.emptyList()));
+			}
+			for (String b : mandatoryElements(a.getValue("Require-Bundle"))) {
+				deps.add(b);
+			}
+			rv.put(e.getKey(), deps);
+		}
+		return rv;
+	}
+
+	private static String firstElement(String header) {
+		List<String> clauses = clauses(header);
+		return clauses.isEmpty() ? null : clauses.get(0).split(";")[0].trim();
+	}
+
+	/**
+	 * @return the names of all clauses of the header which are not <code>resolution:=optional</code>
+	 */
+	static List<String> mandatoryElements(String header) {
+		List<String> rv = new ArrayList<>();
+		for (String clause : clauses(header)) {
+			if (clause.replace(" ", "").contains("resolution:=optional")) {
+				continue;
+			}
+			for (String part : clause.split(";")) {
+				part = part.trim();
+				if (part.contains("=")) {
+					break;
+				}
+				rv.add(part);
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Splits a manifest header at the commas outside of quoted values
+	 */
+	private static List<String> clauses(String header) {
+		List<String> rv = new ArrayList<>();
+		if (header == null) {
+			return rv;
+		}
+
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < header.length(); i++) {
+			char c = header.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (c == ',' && !quoted) {
+				rv.add(header.substring(start, i));
+				start = i + 1;
+			}
+		}
+		rv.add(header.substring(start));
+		return rv;
+	}
+}
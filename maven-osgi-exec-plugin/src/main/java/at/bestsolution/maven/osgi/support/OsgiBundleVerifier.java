@@ -16,7 +16,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.jar.Attributes;
-import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 import org.apache.maven.artifact.Artifact;
@@ -32,8 +31,18 @@ final public class OsgiBundleVerifier {
 
     private Logger logger;
 
-    public OsgiBundleVerifier(Logger logger) {
+    private final ManifestCache manifestCache;
+
+    public OsgiBundleVerifier(Logger logger, ManifestCache manifestCache) {
         this.logger = logger;
+        this.manifestCache = manifestCache;
+    }
+
+    /**
+     * @return the cache used to look up the manifests of jar artifacts
+     */
+    public ManifestCache getManifestCache() {
+        return manifestCache;
     }
 
     public boolean isBundle(Artifact artifact) {
@@ -68,11 +77,11 @@ final public class OsgiBundleVerifier {
             }
 
         } else {
-            try (JarFile f = new JarFile(pathToArtifact.toFile())) {
-                if (f.getManifest() == null) {
+            try {
+                manifest = manifestCache.getManifest(pathToArtifact);
+                if (!manifest.isPresent()) {
                     logger.error("Can not process artifact " + formatArtifact(artifact) + ". Jar File of " + artifact.getFile() + " have no MANIFEST.MF");
                 }
-                manifest = Optional.ofNullable(f.getManifest());
 
             } catch (IOException e) {
                 logger.error("Can not process artifact " + formatArtifact(artifact) + ". Jar File of " + artifact.getFile() + " can not be created");
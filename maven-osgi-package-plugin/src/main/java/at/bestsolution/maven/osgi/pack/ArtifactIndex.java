@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.pack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Dependency;
+
+/**
+ * Index of the resolved artifacts of a project by groupId, artifactId, classifier and version without qualifier, so the
+ * artifact of a dependency is found without scanning all artifacts.
+ * <p>
+ * A dependency without classifier matches the artifacts of all classifiers, classifiers are compared case insensitive.
+ * </p>
+ */
+final class ArtifactIndex {
+
+	private final Map<String, List<Artifact>> byVersion = new HashMap<>();
+	private final Map<String, List<Artifact>> byClassifier = new HashMap<>();
+
+	ArtifactIndex(Collection<Artifact> artifacts) {
+		for (Artifact a : artifacts) {
+			String key = key(a.getGroupId(), a.getArtifactId(), removeQualifier(a.getVersion()));
+			byVersion.computeIfAbsent(key, k -> new ArrayList<>()).add(a);
+			byClassifier.computeIfAbsent(key + ':' + classifier(a.getClassifier()), k -> new ArrayList<>()).add(a);
+		}
+	}
+
+	/**
+	 * Looks up the artifacts of a dependency. A dependency without classifier prefers a single artifact without
+	 * classifier over the classified ones.
+	 *
+	 * @param d
+	 *            the dependency
+	 * @return the matching artifacts in resolution order, more than one if the match is ambiguous
+	 */
+	List<Artifact> find(Dependency d) {
+		String key = key(d.getGroupId(), d.getArtifactId(), removeQualifier(d.getVersion()));
+		if (d.getClassifier() != null) {
+			return byClassifier.getOrDefault(key + ':' + classifier(d.getClassifier()), Collections.emptyList());
+		}
+
+		List<Artifact> unclassified = byClassifier.get(key + ':');
+		if (unclassified != null && unclassified.size() == 1) {
+			return unclassified;
+		}
+		return byVersion.getOrDefault(key, Collections.emptyList());
+	}
+
+	private static String key(String groupId, String artifactId, String version) {
+		return groupId + ':' + artifactId + ':' + version;
+	}
+
+	private static String classifier(String classifier) {
+		return classifier == null ? "" : classifier.toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String removeQualifier(String version) {
+		int idx = version.indexOf('-');
+		if( idx != -1 ) {
+			return version.substring(0,idx);
+		}
+		return version;
+	}
+}
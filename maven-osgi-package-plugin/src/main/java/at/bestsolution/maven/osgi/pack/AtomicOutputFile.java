@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.pack;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.codehaus.plexus.util.xml.PrettyPrintXMLWriter;
+import org.codehaus.plexus.util.xml.XMLWriter;
+
+/**
+ * Writes a file through a temporary file next to it, which replaces the target with an atomic move on {@link #commit()}.
+ * <p>
+ * If the new content equals the existing file the target is not touched, so its last-modified time stays and up-to-date
+ * checks of later steps are not invalidated. A file not committed is discarded on {@link #close()}.
+ * </p>
+ */
+final class AtomicOutputFile implements Closeable {
+
+	private final Path target;
+	private final Path tmp;
+	private final OutputStream out;
+	private PrintWriter writer;
+	private boolean closed;
+
+	AtomicOutputFile(File target) throws IOException {
+		this.target = target.toPath();
+		Path directory = this.target.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		this.tmp = createTmp(directory, target.getName());
+		this.out = new BufferedOutputStream(Files.newOutputStream(tmp));
+	}
+
+	/**
+	 * Unlike {@link Files#createTempFile(Path, String, String, java.nio.file.attribute.FileAttribute...)} the file is
+	 * created with the default permissions of the umask, not owner only, as it replaces the target.
+	 */
+	private static Path createTmp(Path directory, String name) throws IOException {
+		while (true) {
+			Path p = directory.resolve(name + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+			try {
+				return Files.createFile(p);
+			} catch (FileAlreadyExistsException e) {
+				// try the next name
+			}
+		}
+	}
+
+	OutputStream getOutputStream() {
+		return out;
+	}
+
+	/**
+	 * @return a pretty printing UTF-8 XML writer streaming into the file
+	 */
+	XMLWriter createXMLWriter() {
+		writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		return new PrettyPrintXMLWriter(writer, "UTF-8", null);
+	}
+
+	/**
+	 * Replaces the target with the written content.
+	 *
+	 * @return {@code true} if the target changed, {@code false} if it already had the same content
+	 * @throws IOException
+	 *             if the file can not be written
+	 */
+	boolean commit() throws IOException {
+		closeStreams();
+		boolean changed = !sameContent(tmp, target);
+		if (changed) {
+			copyPermissions(target, tmp);
+			try {
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} else {
+			Files.delete(tmp);
+		}
+		// only now the temporary file is gone, if anything above fails close() removes it
+		closed = true;
+		return changed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			try {
+				closeStreams();
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+
+	/**
+	 * An existing target keeps its permissions, like it did when it was overwritten in place.
+	 */
+	private static void copyPermissions(Path from, Path to) throws IOException {
+		if (Files.isRegularFile(from) && Files.getFileStore(to).supportsFileAttributeView(PosixFileAttributeView.class)) {
+			Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+		}
+	}
+
+	private void closeStreams() throws IOException {
+		if (writer != null) {
+			writer.flush();
+			if (writer.checkError()) {
+				throw new IOException("Unable to write " + tmp);
+			}
+		}
+		out.close();
+	}
+
+	private static boolean sameContent(Path a, Path b) throws IOException {
+		if (!Files.isRegularFile(b) || Files.size(a) != Files.size(b)) {
+			return false;
+		}
+
+		byte[] bufA = new byte[8192];
+		byte[] bufB = new byte[8192];
+		try (InputStream inA = Files.newInputStream(a); InputStream inB = Files.newInputStream(b)) {
+			int l;
+			while ((l = readFully(inA, bufA)) > 0) {
+				if (readFully(inB, bufB) != l) {
+					return false;
+				}
+				for (int i = 0; i < l; i++) {
+					if (bufA[i] != bufB[i]) {
+						return false;
+					}
+				}
+			}
+			return inB.read() == -1;
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] buf) throws IOException {
+		int total = 0;
+		int l;
+		while (total < buf.length && (l = in.read(buf, total, buf.length - total)) != -1) {
+			total += l;
+		}
+		return total;
+	}
+}
@@ -11,15 +11,10 @@
 package at.bestsolution.maven.osgi.pack;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.function.Predicate;
-import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 import org.apache.maven.artifact.Artifact;
@@ -27,6 +22,7 @@ import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -34,10 +30,8 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.logging.Logger;
-import org.codehaus.plexus.util.xml.PrettyPrintXMLWriter;
 import org.codehaus.plexus.util.xml.XMLWriter;
-import org.codehaus.plexus.util.xml.Xpp3Dom;
-import org.codehaus.plexus.util.xml.Xpp3DomWriter;
+import org.sonatype.plexus.build.incremental.BuildContext;
 
 import aQute.bnd.version.MavenVersion;
 import aQute.bnd.version.Version;
@@ -70,6 +64,15 @@ public class FeaturePackagePlugin extends AbstractMojo {
 	
 	@Parameter(defaultValue = "${project.build.outputDirectory}", readonly = true)
 	private File classesDir;
+
+	@Parameter(defaultValue = "${plugin}", readonly = true)
+	private PluginDescriptor plugin;
+
+	@Parameter(defaultValue = "${settings.localRepository}", readonly = true)
+	private File localRepository;
+
+	@Parameter(defaultValue = "${project.build.directory}", readonly = true)
+	private File buildDirectory;
 	
 	@Parameter(required=true)
 	private String providerName;
@@ -89,104 +92,158 @@ public class FeaturePackagePlugin extends AbstractMojo {
     @Component
     private Logger logger;
 
+    @Component
+    private BuildContext buildContext;
+
     private OsgiBundleVerifier osgiVerifier;
 
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException {
-		Xpp3Dom d = new Xpp3Dom("feature");
-		d.setAttribute("id", project.getArtifactId());
-		d.setAttribute("label", project.getName());
-		
-		Version version = MavenVersion.parseString(project.getVersion()).getOSGiVersion();
-		d.setAttribute("version", version.getWithoutQualifier().toString()+"."+qualifier);
-		d.setAttribute("provider-name", providerName);
-		
-		if( description != null ) {
-			Xpp3Dom n = new Xpp3Dom("description");
-			n.setValue(description);
-			d.addChild(n);
-		}
-				
-		if( copyright != null ) {
-			Xpp3Dom n = new Xpp3Dom("copyright");
-			n.setValue(copyright);
-			d.addChild(n);
-		}
-		
-		if( license != null ) {
-			Xpp3Dom n = new Xpp3Dom("license");
-			n.setValue(license);
-			d.addChild(n);
+		File featureFile = new File(classesDir, "feature.xml");
+		File manifestFile = new File(classesDir, "META-INF/MANIFEST.MF");
+		File stamp = new File(buildDirectory, "maven-osgi-package/package-feature.fingerprint");
+
+		InputFingerprint fingerprint = fingerprint();
+		if( fingerprint.isUpToDate(stamp, featureFile, manifestFile) ) {
+			logger.info("Dependencies unchanged, feature.xml is up to date");
+			return;
 		}
 
-        List<Artifact> nonOsgiArtifacts = new ArrayList<>();
+		try {
+			InputFingerprint.invalidate(stamp);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to delete '" + stamp.getAbsolutePath() + "'", e);
+		}
 
-		for( Dependency a : project.getDependencies() ) {
-			Xpp3Dom p = new Xpp3Dom("plugin");
-			Optional<Artifact> first = project.getArtifacts().stream().filter(filter(a)).findFirst();
-			if( ! first.isPresent() ) {
-				throw new IllegalStateException("Could not find artifact for '" + formatDependency(a) + "'");
+		try (AtomicOutputFile out = new AtomicOutputFile(featureFile)) {
+			XMLWriter w = out.createXMLWriter();
+			w.startElement("feature");
+			w.addAttribute("id", project.getArtifactId());
+			if( project.getName() != null ) {
+				w.addAttribute("label", project.getName());
 			}
 
-            if (!getOsgiVerifier().isBundle(first.get())) {
-                nonOsgiArtifacts.add(first.get());
-                continue;
-            }
-
-			Manifest mm = getManifest(first.get());
-			p.setAttribute("id", bundleName(mm));
-//			p.setAttribute("download-size", "1"); // FIXME
-//			p.setAttribute("install-size", "1"); // FIXME
-			p.setAttribute("version", bundleVersion(mm));
-			p.setAttribute("unpack", dirShape(mm) + "");
-			generatePlatformAttributes(p, first.get());
-			
-			d.addChild(p);
-		}
+			Version version = MavenVersion.parseString(project.getVersion()).getOSGiVersion();
+			w.addAttribute("version", version.getWithoutQualifier().toString()+"."+qualifier);
+			w.addAttribute("provider-name", providerName);
 
-        if (!nonOsgiArtifacts.isEmpty()) {
-            printNonOsgiBundles(nonOsgiArtifacts);
-            throw new IllegalStateException("There are dependencies which are no OSGI bundles. They can not be used in the product. Convert them to valid " +
-                                            "OSGI bundles. See the list of artifacts above.");
-        }
+			writeTextElement(w, "description", description);
+			writeTextElement(w, "copyright", copyright);
+			writeTextElement(w, "license", license);
 
-		if( ! classesDir.exists() ) {
-			classesDir.mkdirs();
-		}
-		
-		try(PrintWriter writer = new PrintWriter(new File(classesDir,"feature.xml"))) {
-			XMLWriter xmlWriter = new PrettyPrintXMLWriter( writer, "UTF-8", null );
-			
-			Xpp3DomWriter.write(xmlWriter, d);
-		} catch (FileNotFoundException e) {
+			List<Artifact> nonOsgiArtifacts = writePlugins(w);
+			if (!nonOsgiArtifacts.isEmpty()) {
+				printNonOsgiBundles(nonOsgiArtifacts);
+				throw new IllegalStateException("There are dependencies which are no OSGI bundles. They can not be used in the product. Convert them to valid " +
+												"OSGI bundles. See the list of artifacts above.");
+			}
+
+			w.endElement();
+			if( out.commit() ) {
+				buildContext.refresh(featureFile);
+			} else {
+				logger.debug("feature.xml is up to date");
+			}
+		} catch (IOException e) {
 			throw new MojoExecutionException("Unable to write feature.xml in '"+classesDir.getAbsolutePath()+"'",e);
 		}
-		
-		Manifest m = new Manifest();
-		File file = new File(classesDir, "META-INF/MANIFEST.MF");
-		file.getParentFile().mkdirs();
-		try( FileOutputStream out = new FileOutputStream(file) ) {
-			m.write(out);			
+
+		try( AtomicOutputFile out = new AtomicOutputFile(manifestFile) ) {
+			new Manifest().write(out.getOutputStream());
+			if( out.commit() ) {
+				buildContext.refresh(manifestFile);
+			}
 		} catch (IOException e) {
 			throw new MojoExecutionException("Unable to write META-INF/MANIFEST.MF in '"+classesDir.getAbsolutePath()+"'",e);
 		}
+
+		try {
+			fingerprint.record(stamp, featureFile, manifestFile);
+		} catch (IOException e) {
+			logger.warn("Can not write the input fingerprint to " + stamp, e);
+		}
+
+		logger.debug("Read bundle manifests: " + getOsgiVerifier().getManifestCache());
 	}
 
-	private void generatePlatformAttributes(Xpp3Dom childNode, Artifact artifact) {
+	/**
+	 * @return the fingerprint over the mojo parameters, the dependencies and the resolved artifacts
+	 */
+	private InputFingerprint fingerprint() {
+		InputFingerprint f = new InputFingerprint()
+				.addPlugin(plugin)
+				.add("artifactId", project.getArtifactId())
+				.add("name", project.getName())
+				.add("version", project.getVersion())
+				.add("classesDir", classesDir.getAbsolutePath())
+				.add("providerName", providerName)
+				.add("qualifier", qualifier)
+				.add("copyright", copyright)
+				.add("description", description)
+				.add("license", license);
+		for( Dependency d : project.getDependencies() ) {
+			f.add("dependency", d.getGroupId() + ":" + d.getArtifactId() + ":" + d.getVersion() + ":" + d.getClassifier());
+		}
+		project.getArtifacts().forEach(f::addArtifact);
+		return f;
+	}
+
+	/**
+	 * Writes a plugin element for every dependency as soon as its artifact is resolved.
+	 *
+	 * @return the artifacts which are no OSGi bundles
+	 */
+	private List<Artifact> writePlugins(XMLWriter w) {
+		List<Artifact> nonOsgiArtifacts = new ArrayList<>();
+
+		ArtifactIndex artifacts = new ArtifactIndex(project.getArtifacts());
+		for( Dependency a : project.getDependencies() ) {
+			Artifact artifact = findArtifact(artifacts, a);
+
+			if (!getOsgiVerifier().isBundle(artifact)) {
+				nonOsgiArtifacts.add(artifact);
+				continue;
+			}
+
+			Manifest mm = getManifest(artifact);
+			w.startElement("plugin");
+			w.addAttribute("id", bundleName(mm));
+			Optional<ManifestCache.Sizes> sizes = getOsgiVerifier().getSizes(artifact);
+			if( sizes.isPresent() ) {
+				w.addAttribute("download-size", kiloBytes(sizes.get().getDownloadSize()) + "");
+				w.addAttribute("install-size", kiloBytes(sizes.get().getInstallSize()) + "");
+			}
+			w.addAttribute("version", bundleVersion(mm));
+			w.addAttribute("unpack", dirShape(mm) + "");
+			generatePlatformAttributes(w, artifact);
+			w.endElement();
+		}
+		return nonOsgiArtifacts;
+	}
+
+	private static void writeTextElement(XMLWriter w, String name, String value) {
+		if( value != null ) {
+			w.startElement(name);
+			w.writeText(value);
+			w.endElement();
+		}
+	}
+
+	private void generatePlatformAttributes(XMLWriter w, Artifact artifact) {
 		if (CLASSIFIER_MAC.equalsIgnoreCase(artifact.getClassifier())) {
-			childNode.setAttribute("os", "macosx");
-			childNode.setAttribute("ws", "cocoa");
-			childNode.setAttribute("arch", "x86_64");
+			w.addAttribute("os", "macosx");
+			w.addAttribute("ws", "cocoa");
+			w.addAttribute("arch", "x86_64");
 
 		} else if (CLASSIFIER_WIN32.equalsIgnoreCase(artifact.getClassifier())) {
-			childNode.setAttribute("os", "win32");
-			childNode.setAttribute("ws", "win32");
-			childNode.setAttribute("arch", "x86");
+			w.addAttribute("os", "win32");
+			w.addAttribute("ws", "win32");
+			w.addAttribute("arch", "x86");
 
 		} else if (CLASSIFIER_X64.equalsIgnoreCase(artifact.getClassifier())) {
-			childNode.setAttribute("os", "win32");
-			childNode.setAttribute("ws", "win32");
-			childNode.setAttribute("arch", "x86_64");
+			w.addAttribute("os", "win32");
+			w.addAttribute("ws", "win32");
+			w.addAttribute("arch", "x86_64");
 		}
 	}
 
@@ -202,30 +259,22 @@ public class FeaturePackagePlugin extends AbstractMojo {
         });
     }
 
-    private Predicate<Artifact> filter(Dependency d) {
-		String version = removeQualifier(d.getVersion());
-		return a ->
-			d.getArtifactId().equals(a.getArtifactId())
-			&& d.getGroupId().equals(a.getGroupId())
-			&& (d.getClassifier() == null || ((d.getClassifier() != null) && d.getClassifier().equalsIgnoreCase(a.getClassifier())))
-			&& version.equals(removeQualifier(a.getVersion()));
-	}
-	
-	private static String removeQualifier(String version) {
-		int idx = version.indexOf('-');
-		if( idx != -1 ) {
-			return version.substring(0,idx);
+	private Artifact findArtifact(ArtifactIndex artifacts, Dependency d) {
+		List<Artifact> candidates = artifacts.find(d);
+		if( candidates.isEmpty() ) {
+			throw new IllegalStateException("Could not find artifact for '" + formatDependency(d) + "'");
+		}
+
+		if( candidates.size() > 1 ) {
+			logger.warn("Dependency '" + formatDependency(d) + "' matches " + candidates.size() + " artifacts, using the first one:");
+			candidates.forEach(c -> logger.warn("\t" + formatArtifact(c) + (c.getClassifier() != null ? " (" + c.getClassifier() + ")" : "")));
 		}
-		return version;
+		return candidates.get(0);
 	}
-	
+
 	private Manifest getManifest(Artifact a) {
-		try (JarFile f = new JarFile(a.getFile())) {
-			return f.getManifest();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			throw new IllegalStateException(e);
-		}
+		return getOsgiVerifier().getManifest(a)
+				.orElseThrow(() -> new IllegalStateException("Could not read the manifest of '" + formatArtifact(a) + "'"));
 	}
 
 	private static String bundleName(Manifest m) {
@@ -238,13 +287,20 @@ public class FeaturePackagePlugin extends AbstractMojo {
 		return name.split(";")[0];
 	}
 
+	/**
+	 * p2 expects the sizes in kilobytes, rounded up so a non empty bundle never has size 0
+	 */
+	private static long kiloBytes(long bytes) {
+		return (bytes + 1023) / 1024;
+	}
+
 	private static boolean dirShape(Manifest m) {
 		return "dir".equals(m.getMainAttributes().getValue("Eclipse-BundleShape"));
 	}
 	
 	private OsgiBundleVerifier getOsgiVerifier() {
 		if (osgiVerifier == null) {
-			osgiVerifier = new OsgiBundleVerifier(logger);
+			osgiVerifier = new OsgiBundleVerifier(logger, ManifestCache.forLocalRepository(localRepository.toPath()));
 		}
 		return osgiVerifier;
 	}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.pack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+
+/**
+ * Fingerprint over all inputs of a packaging mojo: the plug-in itself, its parameters and the coordinates, paths, sizes
+ * and modification times of the resolved artifacts.
+ * <p>
+ * The fingerprint is recorded in a stamp file after the outputs are written, together with a hash of every output. A
+ * later run with the same fingerprint and unmodified outputs has nothing to do, an output changed by someone else (e.g.
+ * a checkout of the .product file in the source tree) is regenerated. The stamp is removed before the outputs are
+ * rewritten, so an interrupted run is never taken as up to date.
+ * </p>
+ */
+final class InputFingerprint {
+
+	private static final int FORMAT_VERSION = 2;
+
+	private final MessageDigest digest;
+	private String value;
+
+	InputFingerprint() {
+		this.digest = sha256();
+		add("format", FORMAT_VERSION);
+	}
+
+	InputFingerprint add(String key, Object value) {
+		digest.update((key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8));
+		return this;
+	}
+
+	InputFingerprint addArtifact(Artifact a) {
+		add("artifact", a.getGroupId() + ":" + a.getArtifactId() + ":" + a.getVersion() + ":" + a.getClassifier() + ":" + a.getType());
+		File f = a.getFile();
+		if (f != null) {
+			add("file", f.getAbsolutePath() + "," + f.length() + "," + f.lastModified());
+		}
+		return this;
+	}
+
+	/**
+	 * Adds the plug-in version and jar, so a plug-in producing different output (also a rebuilt snapshot) is not
+	 * skipped
+	 */
+	InputFingerprint addPlugin(PluginDescriptor plugin) {
+		if (plugin != null) {
+			add("plugin", plugin.getId());
+			if (plugin.getPluginArtifact() != null) {
+				addArtifact(plugin.getPluginArtifact());
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the hex encoded fingerprint, no inputs can be added afterwards
+	 */
+	String get() {
+		if (value == null) {
+			value = hex(digest.digest());
+		}
+		return value;
+	}
+
+	/**
+	 * @param stamp
+	 *            the stamp file of the last run
+	 * @param outputs
+	 *            the files the mojo writes
+	 * @return {@code true} if the last run had the same inputs and all outputs still have the content it wrote
+	 */
+	boolean isUpToDate(File stamp, File... outputs) {
+		if (!stamp.isFile()) {
+			return false;
+		}
+		for (File o : outputs) {
+			if (!o.isFile()) {
+				return false;
+			}
+		}
+
+		try {
+			return Files.readAllLines(stamp.toPath(), StandardCharsets.UTF_8).equals(stampContent(outputs));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	static void invalidate(File stamp) throws IOException {
+		Files.deleteIfExists(stamp.toPath());
+	}
+
+	void record(File stamp, File... outputs) throws IOException {
+		Files.createDirectories(stamp.toPath().getParent());
+		Files.write(stamp.toPath(), stampContent(outputs), StandardCharsets.UTF_8);
+	}
+
+	private List<String> stampContent(File... outputs) throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add(get());
+		for (File o : outputs) {
+			lines.add(o.getAbsolutePath() + "," + hash(o));
+		}
+		return lines;
+	}
+
+	private static String hash(File f) throws IOException {
+		MessageDigest d = sha256();
+		byte[] buf = new byte[8192];
+		try (InputStream in = Files.newInputStream(f.toPath())) {
+			int l;
+			while ((l = in.read(buf)) != -1) {
+				d.update(buf, 0, l);
+			}
+		}
+		return hex(d.digest());
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder b = new StringBuilder();
+		for (byte v : bytes) {
+			b.append(String.format("%02x", v));
+		}
+		return b.toString();
+	}
+}
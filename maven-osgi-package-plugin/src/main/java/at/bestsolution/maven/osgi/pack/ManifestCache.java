@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.pack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Caches the {@code META-INF/MANIFEST.MF} of jar files on disk, so a bundle whose canonical path, size and last-modified
+ * time did not change is never opened again.
+ * <p>
+ * The install size, the sum of the uncompressed entry sizes, is computed from the central directory while the manifest is
+ * read and stored with it. The download size is the size of the jar itself.
+ * </p>
+ * <p>
+ * The copy in the exec plug-in keeps its own cache directory, every entry starts with the plug-in specific
+ * {@code FORMAT} key, so the two copies can evolve independently.
+ * </p>
+ */
+final class ManifestCache {
+
+	private static final String FORMAT = "maven-osgi-package-plugin/3";
+	private static final int NO_MANIFEST = -1;
+
+	private static final Map<Path, ManifestCache> INSTANCES = new ConcurrentHashMap<>();
+
+	private final Path directory;
+	private final Map<Key, Entry> memory = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private ManifestCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * The cache is kept in the local repository the cached jars come from, not in a shared directory like
+	 * {@code java.io.tmpdir} where another user could plant manifests.
+	 *
+	 * @param localRepository
+	 *            the local Maven repository
+	 * @return the cache shared by all mojos of this JVM using the given local repository
+	 */
+	public static ManifestCache forLocalRepository(Path localRepository) {
+		return get(localRepository.resolve(".cache").resolve("maven-osgi-package-plugin").resolve("manifest-cache"));
+	}
+
+	/**
+	 * @param directory
+	 *            the directory the cache entries are stored in
+	 * @return the cache for the given directory
+	 */
+	public static ManifestCache get(Path directory) {
+		return INSTANCES.computeIfAbsent(directory.toAbsolutePath(), ManifestCache::new);
+	}
+
+	/**
+	 * Reads the manifest of the given jar, from the cache if the jar did not change since it was recorded.
+	 *
+	 * @param jar
+	 *            the jar file
+	 * @return the manifest or an empty optional if the jar has none
+	 * @throws IOException
+	 *             if the jar can not be read
+	 */
+	public Optional<Manifest> getManifest(Path jar) throws IOException {
+		Entry entry = lookup(jar);
+		if (entry.manifest != null) {
+			return Optional.of(new Manifest(new ByteArrayInputStream(entry.manifest)));
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Reads the sizes of the given jar, from the cache if the jar did not change since it was recorded.
+	 *
+	 * @param jar
+	 *            the jar file
+	 * @return the download and install size in bytes
+	 * @throws IOException
+	 *             if the jar can not be read
+	 */
+	public Sizes getSizes(Path jar) throws IOException {
+		Entry entry = lookup(jar);
+		return new Sizes(entry.downloadSize, entry.installSize);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ManifestCache[" + directory + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+	}
+
+	// ------------------------------------
+	// private methods
+	// ------------------------------------
+	private Entry lookup(Path jar) throws IOException {
+		Key key = Key.of(jar);
+
+		Entry entry = memory.get(key);
+		if (entry == null) {
+			entry = readEntry(key);
+		}
+
+		if (entry != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			entry = readJar(jar, key);
+			writeEntry(key, entry);
+		}
+		memory.put(key, entry);
+		return entry;
+	}
+
+	private static Entry readJar(Path jar, Key key) throws IOException {
+		try (JarFile f = new JarFile(jar.toFile())) {
+			Entry entry = new Entry();
+			entry.downloadSize = key.size;
+			for (Enumeration<JarEntry> entries = f.entries(); entries.hasMoreElements();) {
+				entry.installSize += Math.max(0, entries.nextElement().getSize());
+			}
+
+			Manifest m = f.getManifest();
+			if (m != null) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				m.write(out);
+				entry.manifest = out.toByteArray();
+			}
+			return entry;
+		}
+	}
+
+	private Entry readEntry(Key key) {
+		Path file = directory.resolve(key.fileName());
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			if (!FORMAT.equals(in.readUTF()) || !key.path.equals(in.readUTF()) || key.size != in.readLong()
+					|| key.lastModified != in.readLong()) {
+				return null;
+			}
+			Entry entry = new Entry();
+			entry.downloadSize = key.size;
+			entry.installSize = in.readLong();
+			int length = in.readInt();
+			if (length != NO_MANIFEST) {
+				entry.manifest = new byte[length];
+				in.readFully(entry.manifest);
+			}
+			return entry;
+		} catch (IOException e) {
+			// a truncated or foreign entry is simply a miss
+			return null;
+		}
+	}
+
+	private void writeEntry(Key key, Entry content) {
+		Path tmp = null;
+		try {
+			Files.createDirectories(directory);
+			Path entry = directory.resolve(key.fileName());
+			tmp = Files.createTempFile(directory, key.fileName(), ".tmp");
+			try (OutputStream out = Files.newOutputStream(tmp); DataOutputStream data = new DataOutputStream(out)) {
+				data.writeUTF(FORMAT);
+				data.writeUTF(key.path);
+				data.writeLong(key.size);
+				data.writeLong(key.lastModified);
+				data.writeLong(content.installSize);
+				if (content.manifest != null) {
+					data.writeInt(content.manifest.length);
+					data.write(content.manifest);
+				} else {
+					data.writeInt(NO_MANIFEST);
+				}
+			}
+			try {
+				Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			// the cache is an optimization only, the next run simply misses again
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) {
+					// nothing left to clean up
+				}
+			}
+		}
+	}
+
+	/**
+	 * The sizes of a jar in bytes.
+	 */
+	public static final class Sizes {
+		private final long downloadSize;
+		private final long installSize;
+
+		Sizes(long downloadSize, long installSize) {
+			this.downloadSize = downloadSize;
+			this.installSize = installSize;
+		}
+
+		/**
+		 * @return the size of the jar file
+		 */
+		public long getDownloadSize() {
+			return downloadSize;
+		}
+
+		/**
+		 * @return the sum of the uncompressed sizes of all entries
+		 */
+		public long getInstallSize() {
+			return installSize;
+		}
+	}
+
+	private static final class Entry {
+		/**
+		 * The manifest content or {@code null} if the jar has none
+		 */
+		byte[] manifest;
+		long downloadSize;
+		long installSize;
+	}
+
+	private static final class Key {
+		final String path;
+		final long size;
+		final long lastModified;
+
+		private Key(String path, long size, long lastModified) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		static Key of(Path jar) throws IOException {
+			Path real = jar.toRealPath();
+			return new Key(real.toString(), Files.size(real), Files.getLastModifiedTime(real).toMillis());
+		}
+
+		String fileName() {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-1");
+				StringBuilder b = new StringBuilder();
+				for (byte v : digest.digest(path.getBytes(StandardCharsets.UTF_8))) {
+					b.append(String.format("%02x", v));
+				}
+				return b.toString();
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return path.equals(other.path) && size == other.size && lastModified == other.lastModified;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + Long.hashCode(size ^ lastModified);
+		}
+	}
+}
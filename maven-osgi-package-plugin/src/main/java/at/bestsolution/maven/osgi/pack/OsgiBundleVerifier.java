@@ -11,8 +11,9 @@
 package at.bestsolution.maven.osgi.pack;
 
 import java.io.IOException;
+import java.util.Optional;
 import java.util.jar.Attributes;
-import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.model.Dependency;
@@ -29,8 +30,15 @@ final public class OsgiBundleVerifier {
 
 	private Logger logger;
 
-	OsgiBundleVerifier(Logger logger) {
+	private final ManifestCache manifestCache;
+
+	OsgiBundleVerifier(Logger logger, ManifestCache manifestCache) {
 		this.logger = logger;
+		this.manifestCache = manifestCache;
+	}
+
+	ManifestCache getManifestCache() {
+		return manifestCache;
 	}
 
 	public boolean isBundle(Artifact artifact) {
@@ -38,19 +46,40 @@ final public class OsgiBundleVerifier {
 			return false;
 		}
 
-		boolean isOsgi = false;
-
-		try (JarFile f = new JarFile(artifact.getFile())) {
-			if (f.getManifest() != null && f.getManifest().getMainAttributes().get(MANIFEST_SYMBOLIC_NAME) != null) {
-				isOsgi = true;
-			}
+		Optional<Manifest> manifest = getManifest(artifact);
+		return manifest.isPresent() && manifest.get().getMainAttributes().get(MANIFEST_SYMBOLIC_NAME) != null;
+	}
 
+	/**
+	 * @param artifact
+	 *            the jar artifact
+	 * @return the manifest of the artifact or an empty optional if it has none or
+	 *         can not be read
+	 */
+	public Optional<Manifest> getManifest(Artifact artifact) {
+		try {
+			return manifestCache.getManifest(artifact.getFile().toPath());
 		} catch (IOException e) {
 			logger.error("Can not process artifact " + formatArtifact(artifact) + ". Jar File of " + artifact.getFile()
 					+ " can not be created");
+			return Optional.empty();
 		}
+	}
 
-		return isOsgi;
+	/**
+	 * @param artifact
+	 *            the jar artifact
+	 * @return the download and install size of the artifact or an empty optional if
+	 *         it can not be read
+	 */
+	public Optional<ManifestCache.Sizes> getSizes(Artifact artifact) {
+		try {
+			return Optional.of(manifestCache.getSizes(artifact.getFile().toPath()));
+		} catch (IOException e) {
+			logger.error("Can not process artifact " + formatArtifact(artifact) + ". Jar File of " + artifact.getFile()
+					+ " can not be read");
+			return Optional.empty();
+		}
 	}
 
 	public static String formatArtifact(Artifact artifact) {
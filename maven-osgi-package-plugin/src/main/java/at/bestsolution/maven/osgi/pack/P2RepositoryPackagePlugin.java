@@ -13,10 +13,24 @@ package at.bestsolution.maven.osgi.pack;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 
 import org.apache.maven.artifact.Artifact;
@@ -52,29 +66,65 @@ public class P2RepositoryPackagePlugin extends AbstractMojo {
     @Parameter(defaultValue = "true")
     private boolean compress;
 
+    /**
+     * Number of threads used to stage the artifacts, defaults to the number of available processors
+     */
+    @Parameter(property = "p2.stagingThreads")
+    private int stagingThreads;
+
     @Component
     private P2ApplicationLauncher launcher;
 
     @Component
     private Logger logger;
 
-    private OsgiBundleVerifier osgiVerifier;
+    /**
+     * Set once a hard link is not possible, e.g. because the local repository is on another file system
+     */
+    private final AtomicBoolean linkUnsupported = new AtomicBoolean();
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
 
-        project.getArtifacts().stream().filter(this::pomFilter).forEach(a -> {
+        try {
+            Files.createDirectories(directory.toPath().resolve("plugins"));
+            Files.createDirectories(directory.toPath().resolve("features"));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to create the staging directories in '" + directory + "'", e);
+        }
 
-            String coloredOsgiFlag = getOsgiVerifier().isBundle(a) ? "true" : DebugSupport.TerminalOutputStyling.RED.style("false");
-            String message = String.format("Processing artifact: %0$-70s - OSGI Bundle: %s", formatArtifact(a), coloredOsgiFlag);
-            logger.debug(message);
+        List<Artifact> artifacts = project.getArtifacts().stream().filter(this::pomFilter).collect(Collectors.toList());
+        ForkJoinPool pool = new ForkJoinPool(stagingThreads > 0 ? stagingThreads : Runtime.getRuntime().availableProcessors());
+        try {
+            List<Path> paths = invoke(pool, () -> artifacts.parallelStream().map(this::stagingTarget).collect(Collectors.toList()));
 
-            try (JarFile f = new JarFile(a.getFile())) {
-                handleJar(a, f);
-            } catch (IOException e) {
-                throw new IllegalStateException(e);
+            // staged by target, so no two tasks work on the same file
+            Map<Path, List<Artifact>> targets = new LinkedHashMap<>();
+            for (int i = 0; i < artifacts.size(); i++) {
+                if (paths.get(i) != null) {
+                    targets.computeIfAbsent(paths.get(i), k -> new ArrayList<>()).add(artifacts.get(i));
+                }
             }
-        });
+
+            invoke(pool, () -> {
+                targets.entrySet().parallelStream().forEach(e -> {
+                    List<Artifact> sources = e.getValue();
+                    Artifact a = sources.get(sources.size() - 1);
+                    if (sources.size() > 1) {
+                        logger.warn("Artifacts " + sources.stream().map(OsgiBundleVerifier::formatArtifact).collect(Collectors.joining(", "))
+                                + " are all staged as " + e.getKey().getFileName() + ", using " + formatArtifact(a));
+                    }
+                    try {
+                        stage(a.getFile().toPath(), e.getKey());
+                    } catch (IOException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                });
+                return null;
+            });
+        } finally {
+            pool.shutdown();
+        }
 
         try {
             publishContent();
@@ -118,35 +168,90 @@ public class P2RepositoryPackagePlugin extends AbstractMojo {
         }
     }
 
-    private void handleJar(Artifact a, JarFile jf) throws IOException {
-        if (jf.getManifest() == null) {
+    private static <T> T invoke(ForkJoinPool pool, Callable<T> task) {
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Path stagingTarget(Artifact a) {
+        try (JarFile f = new JarFile(a.getFile())) {
+            return stagingTarget(a, f);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Determines where a feature or bundle is staged in the source directory. The manifest and the feature.xml check
+     * come from the already open jar, so every artifact is opened once.
+     *
+     * @return the target file or <code>null</code> if the artifact is not staged
+     */
+    private Path stagingTarget(Artifact a, JarFile jf) throws IOException {
+        Manifest manifest = jf.getManifest();
+        if (manifest == null) {
             throw new NoSuchFileException(
                     "The JAR file " + jf.getName() + " of artifact " + formatArtifact(a) + " has NO Manfifest file and is not an OSGI " + "bundle.");
         }
 
+        boolean bundle = manifest.getMainAttributes().getValue("Bundle-SymbolicName") != null;
+        String coloredOsgiFlag = bundle ? "true" : DebugSupport.TerminalOutputStyling.RED.style("false");
+        String message = String.format("Processing artifact: %0$-70s - OSGI Bundle: %s", formatArtifact(a), coloredOsgiFlag);
+        logger.debug(message);
+
         ZipEntry entry = jf.getEntry("feature.xml");
-        File dir;
+        Path dir;
         if (entry == null) {
-            if (!getOsgiVerifier().isBundle(a)) {
-                return;
+            if (!bundle) {
+                return null;
             }
 
-            dir = new File(directory, "plugins");
+            dir = directory.toPath().resolve("plugins");
         } else {
-            dir = new File(directory, "features");
+            dir = directory.toPath().resolve("features");
         }
 
-        if (!dir.exists()) {
-            dir.mkdirs();
-        }
-        Files.copy(a.getFile().toPath(), dir.toPath().resolve(a.getFile().getName()), StandardCopyOption.REPLACE_EXISTING);
+        return dir.resolve(a.getFile().getName());
     }
 
-    private OsgiBundleVerifier getOsgiVerifier() {
-        if (osgiVerifier == null) {
-            osgiVerifier = new OsgiBundleVerifier(logger);
+    /**
+     * Hard links the source to the target, or copies it with its timestamps if that is not possible. A target with the
+     * size and modification time of the source is left as it is.
+     */
+    private void stage(Path source, Path target) throws IOException {
+        BasicFileAttributes sourceAttributes = Files.readAttributes(source, BasicFileAttributes.class);
+        if (Files.exists(target)) {
+            BasicFileAttributes targetAttributes = Files.readAttributes(target, BasicFileAttributes.class);
+            if (sourceAttributes.size() == targetAttributes.size()
+                    && sourceAttributes.lastModifiedTime().equals(targetAttributes.lastModifiedTime())) {
+                return;
+            }
+            Files.delete(target);
+        }
+
+        if (!linkUnsupported.get()) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (FileAlreadyExistsException | NoSuchFileException e) {
+                throw e;
+            } catch (FileSystemException | UnsupportedOperationException e) {
+                // another file system, no hard link support or links to files of other users are not permitted
+                if (linkUnsupported.compareAndSet(false, true)) {
+                    logger.debug("Can not hard link " + source + " to " + target + ", copying the artifacts instead: " + e);
+                }
+            }
         }
-        return osgiVerifier;
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
     }
 
 }
@@ -11,14 +11,17 @@
 package at.bestsolution.maven.osgi.pack;
 
 import java.io.File;
-import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.jar.JarFile;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -26,10 +29,8 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.logging.Logger;
-import org.codehaus.plexus.util.xml.PrettyPrintXMLWriter;
 import org.codehaus.plexus.util.xml.XMLWriter;
-import org.codehaus.plexus.util.xml.Xpp3Dom;
-import org.codehaus.plexus.util.xml.Xpp3DomWriter;
+import org.sonatype.plexus.build.incremental.BuildContext;
 
 @Mojo(name = "package-product", defaultPhase = LifecyclePhase.PREPARE_PACKAGE, requiresDependencyResolution = ResolutionScope.COMPILE)
 public class ProductPackagePlugin extends AbstractMojo {
@@ -40,75 +41,118 @@ public class ProductPackagePlugin extends AbstractMojo {
     @Parameter(defaultValue = "${project.basedir}")
     private File projectDir;
 
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    private PluginDescriptor plugin;
+
+    @Parameter(defaultValue = "${project.build.directory}", readonly = true)
+    private File buildDirectory;
+
     @Parameter(required = true)
     private Product product;
 
     @Component
     private Logger logger;
 
+    @Component
+    private BuildContext buildContext;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        Xpp3Dom xppProduct = new Xpp3Dom("product");
-        xppProduct.setAttribute("name", product.name);
-        xppProduct.setAttribute("uid", product.uid);
-        xppProduct.setAttribute("id", product.id);
-        xppProduct.setAttribute("application", product.application);
-        xppProduct.setAttribute("version", product.version);
-        xppProduct.setAttribute("useFeatures", product.useFeatures + "");
-        xppProduct.setAttribute("includeLaunchers", product.includeLaunchers + "");
-
-        Xpp3Dom configIni = new Xpp3Dom("configIni");
-        configIni.setAttribute("use", "default");
-        xppProduct.addChild(configIni);
-
-        Xpp3Dom launcherArgs = new Xpp3Dom("launcherArgs");
-        Xpp3Dom programArgs = new Xpp3Dom("programArgs");
-        for (String a : product.launcherArgs.programArguments) {
-            programArgs.setValue(a);
-        }
-        launcherArgs.addChild(programArgs);
-
-        Xpp3Dom vmArgs = new Xpp3Dom("vmArgs");
-        for (Entry<Object, Object> e : product.launcherArgs.vmProperties.entrySet()) {
-            vmArgs.setValue("-D" + e.getKey() + "=" + e.getValue());
-        }
-
-        launcherArgs.addChild(vmArgs);
-
-        xppProduct.addChild(launcherArgs);
-        xppProduct.addChild(new Xpp3Dom("windowImages"));
-
-        Xpp3Dom features = new Xpp3Dom("features");
-        project.getArtifacts().stream().filter(this::pomFilter).filter(this::featureFilter).map(a -> {
-            Xpp3Dom feature = new Xpp3Dom("feature");
-            feature.setAttribute("id", a.getArtifactId());
-            return feature;
-        }).forEach(features::addChild);
-        xppProduct.addChild(features);
+        File productFile = new File(projectDir, product.id + ".product");
+        File stamp = new File(buildDirectory, "maven-osgi-package/package-product-" + product.id + ".fingerprint");
 
-        Xpp3Dom configurations = new Xpp3Dom("configurations");
-
-        for (Entry<String, Integer> e : product.startLevels.entrySet()) {
-            Xpp3Dom plugin = new Xpp3Dom("plugin");
-            plugin.setAttribute("id", e.getKey());
-            plugin.setAttribute("autoStart", "true");
-            plugin.setAttribute("startLevel", e.getValue() + "");
-            configurations.addChild(plugin);
+        InputFingerprint fingerprint = fingerprint();
+        if (fingerprint.isUpToDate(stamp, productFile)) {
+            logger.info("Inputs unchanged, " + productFile.getName() + " is up to date");
+            return;
         }
 
-        xppProduct.addChild(configurations);
-
-        if (!projectDir.exists()) {
-            projectDir.mkdirs();
+        try (AtomicOutputFile out = new AtomicOutputFile(productFile)) {
+            InputFingerprint.invalidate(stamp);
+
+            XMLWriter w = out.createXMLWriter();
+            w.startElement("product");
+            w.addAttribute("name", product.name);
+            w.addAttribute("uid", product.uid);
+            w.addAttribute("id", product.id);
+            w.addAttribute("application", product.application);
+            w.addAttribute("version", product.version);
+            w.addAttribute("useFeatures", product.useFeatures + "");
+            w.addAttribute("includeLaunchers", product.includeLaunchers + "");
+
+            w.startElement("configIni");
+            w.addAttribute("use", "default");
+            w.endElement();
+
+            w.startElement("launcherArgs");
+            writeTextElement(w, "programArgs", String.join(" ", product.launcherArgs.programArguments));
+            List<String> vmArgs = new ArrayList<>();
+            for (Entry<Object, Object> e : product.launcherArgs.vmProperties.entrySet()) {
+                vmArgs.add("-D" + e.getKey() + "=" + e.getValue());
+            }
+            writeTextElement(w, "vmArgs", String.join(" ", vmArgs));
+            w.endElement();
+
+            w.startElement("windowImages");
+            w.endElement();
+
+            w.startElement("features");
+            project.getArtifacts().stream().filter(this::pomFilter).filter(this::featureFilter).forEach(a -> {
+                w.startElement("feature");
+                w.addAttribute("id", a.getArtifactId());
+                w.endElement();
+            });
+            w.endElement();
+
+            w.startElement("configurations");
+            for (Entry<String, Integer> e : product.startLevels.entrySet()) {
+                w.startElement("plugin");
+                w.addAttribute("id", e.getKey());
+                w.addAttribute("autoStart", "true");
+                w.addAttribute("startLevel", e.getValue() + "");
+                w.endElement();
+            }
+            w.endElement();
+
+            w.endElement();
+            if (out.commit()) {
+                buildContext.refresh(productFile);
+            } else {
+                logger.debug(productFile.getName() + " is up to date");
+            }
+            fingerprint.record(stamp, productFile);
+        } catch (Throwable e) {
+            logger.error("Problems on writing the .product file to " + projectDir, e);
         }
+    }
 
-        try (PrintWriter writer = new PrintWriter(new File(projectDir, product.id + ".product"))) {
-            XMLWriter xmlWriter = new PrettyPrintXMLWriter(writer, "UTF-8", null);
-            Xpp3DomWriter.write(xmlWriter, xppProduct);
+    /**
+     * @return the fingerprint over the product configuration and the resolved artifacts
+     */
+    private InputFingerprint fingerprint() {
+        InputFingerprint f = new InputFingerprint()
+                .addPlugin(plugin)
+                .add("projectDir", projectDir.getAbsolutePath())
+                .add("name", product.name)
+                .add("uid", product.uid)
+                .add("id", product.id)
+                .add("application", product.application)
+                .add("version", product.version)
+                .add("useFeatures", product.useFeatures)
+                .add("includeLaunchers", product.includeLaunchers)
+                .add("programArgs", product.launcherArgs.programArguments)
+                .add("vmArgs", new TreeMap<>(product.launcherArgs.vmProperties))
+                .add("startLevels", new TreeMap<>(product.startLevels));
+        project.getArtifacts().forEach(f::addArtifact);
+        return f;
+    }
 
-        } catch (Throwable e) {
-            logger.error("Problems on writing the .product file to " + projectDir, e);
+    private static void writeTextElement(XMLWriter w, String name, String value) {
+        w.startElement(name);
+        if (!value.isEmpty()) {
+            w.writeText(value);
         }
+        w.endElement();
     }
 
     /**
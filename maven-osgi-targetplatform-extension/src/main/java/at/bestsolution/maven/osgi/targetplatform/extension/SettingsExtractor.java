@@ -18,6 +18,9 @@ import org.apache.maven.execution.ExecutionEvent;
 import org.apache.maven.settings.Proxy;
 import org.codehaus.plexus.component.annotations.Component;
 
+import at.bestsolution.maven.osgi.targetplatform.extension.internal.PropertyBasedParameterProvider;
+import at.bestsolution.maven.osgi.targetplatform.extension.internal.TargetPlatformResolutionCache;
+
 @Component(role = EventSpy.class, hint = "getsettings")
 public class SettingsExtractor extends AbstractEventSpy {
 
@@ -50,6 +53,16 @@ public class SettingsExtractor extends AbstractEventSpy {
                 System.setProperty("http.proxyPort", String.valueOf(p.getPort()));
             });
 
+            System.setProperty(PropertyBasedParameterProvider.OFFLINE_PROPERTY_KEY, String.valueOf(event.getSession().isOffline()));
+            if (event.getSession().getRequest().getLocalRepositoryPath() != null) {
+                System.setProperty(PropertyBasedParameterProvider.LOCAL_REPOSITORY_PROPERTY_KEY,
+                        event.getSession().getRequest().getLocalRepositoryPath().getAbsolutePath());
+            }
+
+            break;
+
+        case SessionEnded:
+            TargetPlatformResolutionCache.clear();
             break;
 
         default:
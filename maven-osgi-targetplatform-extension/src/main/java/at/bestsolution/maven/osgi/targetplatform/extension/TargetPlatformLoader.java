@@ -19,6 +19,7 @@ import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.logging.Logger;
 
 import at.bestsolution.maven.osgi.targetplatform.extension.internal.PropertyBasedParameterProvider;
+import at.bestsolution.maven.osgi.targetplatform.extension.internal.TargetPlatformResolutionCache;
 import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
 import at.bestsolution.maven.osgi.targetplatform.lib.TargetPlatformDependenciesExtractor;
 
@@ -65,7 +66,8 @@ public class TargetPlatformLoader extends DefaultModelReader {
 
         TargetPlatformDependenciesExtractor targetPlatformDependenciesExtractor = new TargetPlatformDependenciesExtractor(parameterProvider);
 
-        for (Dependency dependency : targetPlatformDependenciesExtractor.doMavenDependenciesGeneration()) {
+        for (Dependency dependency : TargetPlatformResolutionCache.resolve(parameterProvider,
+                targetPlatformDependenciesExtractor::doMavenDependenciesGeneration)) {
             model.addDependency(dependency);
         }
     }
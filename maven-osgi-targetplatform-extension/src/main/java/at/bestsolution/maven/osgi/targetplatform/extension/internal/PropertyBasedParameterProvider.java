@@ -2,7 +2,13 @@ package at.bestsolution.maven.osgi.targetplatform.extension.internal;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.stream.Collectors;
 
 import at.bestsolution.maven.osgi.targetplatform.lib.ParameterProvider;
 
@@ -14,6 +20,16 @@ public class PropertyBasedParameterProvider implements ParameterProvider {
     private static final String TARGET_FEATURE_JAR_PREFIX_PROPERTY_KEY = "target.feature.jar.prefix";
     private static final String EFXCLIPSE_SITE_PROPERTY_KEY = "efxclipse.site";
     private static final String EFXCLIPSE_UPDATE_SITE_PROPERTY_KEY = "efxclipse.update.site";
+    private static final String EFXCLIPSE_UPDATE_SITE_MIRRORS_PROPERTY_KEY = "efxclipse.update.site.mirrors";
+
+    /**
+     * Local repository of the session, published by the SettingsExtractor
+     */
+    public static final String LOCAL_REPOSITORY_PROPERTY_KEY = "targetplatform.local.repository";
+    /**
+     * Offline flag of the session, published by the SettingsExtractor
+     */
+    public static final String OFFLINE_PROPERTY_KEY = "targetplatform.offline";
 
     private String additionalDependenciesFile;
     private String whitelistFile;
@@ -21,6 +37,7 @@ public class PropertyBasedParameterProvider implements ParameterProvider {
     private String targetFeatureJarPrefix;
     private String efxclipseSite;
     private String efxclipseUpdateSite;
+    private String efxclipseUpdateSiteMirrors;
     private boolean activate;
 
     public PropertyBasedParameterProvider(Properties properties) {
@@ -30,6 +47,7 @@ public class PropertyBasedParameterProvider implements ParameterProvider {
         this.targetFeatureJarPrefix = properties.getProperty(TARGET_FEATURE_JAR_PREFIX_PROPERTY_KEY, "features/org.eclipse.fx.target.feature_");
         this.efxclipseSite = properties.getProperty(EFXCLIPSE_SITE_PROPERTY_KEY, "site.xml");
         this.efxclipseUpdateSite = properties.getProperty(EFXCLIPSE_UPDATE_SITE_PROPERTY_KEY);
+        this.efxclipseUpdateSiteMirrors = properties.getProperty(EFXCLIPSE_UPDATE_SITE_MIRRORS_PROPERTY_KEY);
         this.activate = efxclipseUpdateSite != null;
 
         overrideModelPropertiesWithSystemProperties();
@@ -42,6 +60,7 @@ public class PropertyBasedParameterProvider implements ParameterProvider {
         this.targetFeatureJarPrefix = getSystemProperty(TARGET_FEATURE_JAR_PREFIX_PROPERTY_KEY, targetFeatureJarPrefix);
         this.efxclipseSite = getSystemProperty(EFXCLIPSE_SITE_PROPERTY_KEY, efxclipseSite);
         this.efxclipseUpdateSite = getSystemProperty(EFXCLIPSE_UPDATE_SITE_PROPERTY_KEY, efxclipseUpdateSite);
+        this.efxclipseUpdateSiteMirrors = getSystemProperty(EFXCLIPSE_UPDATE_SITE_MIRRORS_PROPERTY_KEY, efxclipseUpdateSiteMirrors);
     }
 
     private String getSystemProperty(String systemPropertyKey, String defaultValue) {
@@ -92,6 +111,40 @@ public class PropertyBasedParameterProvider implements ParameterProvider {
         return efxclipseUpdateSite;
     }
 
+    /**
+     * @return the comma separated mirrors of the <code>efxclipse.update.site.mirrors</code> property
+     */
+    @Override
+    public List<String> getEfxclipseUpdateSiteMirrors() {
+        if (efxclipseUpdateSiteMirrors == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(efxclipseUpdateSiteMirrors.split(",")).map(String::trim).filter(m -> !m.isEmpty()).collect(Collectors.toList());
+    }
+
+    /**
+     * @return all inputs of the target platform resolution, equal keys resolve to the same dependencies
+     */
+    public List<String> getCacheKey() {
+        Proxy proxy = getProxy();
+        return Arrays.asList(additionalDependenciesFile, whitelistFile, featureFile, targetFeatureJarPrefix, efxclipseSite, efxclipseUpdateSite,
+                String.join(",", getEfxclipseUpdateSiteMirrors()), String.valueOf(isOffline()), proxy == null ? null : proxy.address().toString());
+    }
+
+    @Override
+    public Path getCacheDirectory() {
+        String localRepository = System.getProperty(LOCAL_REPOSITORY_PROPERTY_KEY, System.getProperty("maven.repo.local"));
+        if (localRepository == null) {
+            localRepository = System.getProperty("user.home") + "/.m2/repository";
+        }
+        return Paths.get(localRepository).resolve(".cache").resolve("maven-osgi-targetplatform");
+    }
+
+    @Override
+    public boolean isOffline() {
+        return Boolean.getBoolean(OFFLINE_PROPERTY_KEY);
+    }
+
     @Override
     public Proxy getProxy() {
 
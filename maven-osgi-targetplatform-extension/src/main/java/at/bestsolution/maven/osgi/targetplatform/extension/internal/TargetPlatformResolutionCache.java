@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2017 BestSolution.at and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     BestSolution.at - initial API and implementation
+ *******************************************************************************/
+package at.bestsolution.maven.osgi.targetplatform.extension.internal;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.apache.maven.model.Dependency;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.internal.AbstractDependenciesExtractor;
+
+/**
+ * Memoizes the resolved target platform dependencies for the current session, so the update site is only accessed once
+ * per distinct set of {@link PropertyBasedParameterProvider} inputs no matter how many models of the reactor carry
+ * them. Concurrent callers with the same inputs wait for the one resolution in flight.
+ */
+public final class TargetPlatformResolutionCache {
+
+    private static final Map<List<String>, CompletableFuture<Set<Dependency>>> RESOLUTIONS = new ConcurrentHashMap<>();
+
+    private TargetPlatformResolutionCache() {
+    }
+
+    /**
+     * Returns the dependencies resolved for the given inputs, running the resolution if no other caller did so before.
+     * Failed resolutions are not cached.
+     *
+     * @param parameterProvider
+     *            the inputs of the resolution
+     * @param resolution
+     *            does the actual resolution
+     * @return copies of the resolved dependencies, which the caller may add to its model
+     */
+    public static Set<Dependency> resolve(PropertyBasedParameterProvider parameterProvider, Supplier<Set<Dependency>> resolution) {
+        List<String> key = parameterProvider.getCacheKey();
+
+        CompletableFuture<Set<Dependency>> future = new CompletableFuture<>();
+        CompletableFuture<Set<Dependency>> existing = RESOLUTIONS.putIfAbsent(key, future);
+        if (existing == null) {
+            try {
+                future.complete(resolution.get());
+            } catch (RuntimeException | Error e) {
+                RESOLUTIONS.remove(key, future);
+                future.completeExceptionally(e);
+            }
+            existing = future;
+        }
+
+        try {
+            return existing.join().stream().map(Dependency::clone).collect(Collectors.toSet());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets all resolutions and the features loaded for them, called when the session ends so a long living JVM picks
+     * up changes of the update site.
+     */
+    public static void clear() {
+        RESOLUTIONS.clear();
+        AbstractDependenciesExtractor.clearCaches();
+    }
+}
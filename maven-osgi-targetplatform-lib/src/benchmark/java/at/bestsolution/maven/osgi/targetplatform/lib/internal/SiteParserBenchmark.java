@@ -0,0 +1,74 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.pde.internal.core.isite.ISiteFeature;
+import org.eclipse.pde.internal.core.site.WorkspaceSiteModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares looking up the target feature in a generated site.xml with the StAX parser and with the PDE site model
+ * used before. The target feature is placed in the middle of the site. Run through {@code org.openjdk.jmh.Main}, see
+ * the benchmark profile of the pom.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SiteParserBenchmark {
+
+    private static final String TARGET_PREFIX = "features/org.eclipse.fx.target.feature_";
+
+    @Param({ "100", "10000" })
+    private int features;
+
+    private byte[] site;
+
+    @Setup
+    public void generateSite() {
+        StringBuilder b = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<site>\n");
+        for (int i = 0; i < features; i++) {
+            String id = i == features / 2 ? "org.eclipse.fx.target.feature" : "org.example.feature" + i;
+            b.append("   <feature url=\"features/").append(id).append("_3.0.0.201706050601.jar\" id=\"").append(id)
+                    .append("\" version=\"3.0.0.201706050601\">\n");
+            b.append("      <category name=\"category").append(i % 10).append("\"/>\n");
+            b.append("   </feature>\n");
+        }
+        for (int i = 0; i < 10; i++) {
+            b.append("   <category-def name=\"category").append(i).append("\" label=\"Category ").append(i).append("\"/>\n");
+        }
+        b.append("</site>\n");
+        site = b.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String stax() {
+        return UpdateSiteAccessor.extractRelativeTargetPlatformFeatureJarUrl(new ByteArrayInputStream(site), TARGET_PREFIX);
+    }
+
+    @Benchmark
+    public String pdeModel() {
+        WorkspaceSiteModel model = new WorkspaceSiteModel(new FileWrapper(new ByteArrayInputStream(site)));
+        model.load();
+        for (ISiteFeature f : model.getSite().getFeatures()) {
+            if (f.getURL().startsWith(TARGET_PREFIX)) {
+                return f.getURL();
+            }
+        }
+        return null;
+    }
+}
@@ -1,6 +1,8 @@
 package at.bestsolution.maven.osgi.targetplatform.lib;
 
 import java.net.Proxy;
+import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Provides all necessary parameters.
@@ -21,6 +23,21 @@ public interface ParameterProvider {
 
     String getEfxclipseUpdateSite();
 
+    /**
+     * @return mirrors of the efxclipse update site, the fastest one serving the same site is used, may be empty
+     */
+    List<String> getEfxclipseUpdateSiteMirrors();
+
     Proxy getProxy();
 
+    /**
+     * @return the directory the update site metadata is cached in or <code>null</code> to not cache it
+     */
+    Path getCacheDirectory();
+
+    /**
+     * @return <code>true</code> if the update site must not be accessed and only cached metadata is used
+     */
+    boolean isOffline();
+
 }
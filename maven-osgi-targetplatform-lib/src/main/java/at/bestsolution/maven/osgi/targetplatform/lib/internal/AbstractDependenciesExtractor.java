@@ -1,24 +1,54 @@
 package at.bestsolution.maven.osgi.targetplatform.lib.internal;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.maven.model.Dependency;
-import org.eclipse.pde.internal.core.ifeature.IFeaturePlugin;
 
 import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
 import at.bestsolution.maven.osgi.targetplatform.lib.ParameterProvider;
+import at.bestsolution.maven.osgi.targetplatform.lib.internal.IncludedFeatureResolver.Feature;
+import at.bestsolution.maven.osgi.targetplatform.lib.internal.IncludedFeatureResolver.FeatureLoader;
 
 public abstract class AbstractDependenciesExtractor {
 
+    private static final String FEATURE_THREADS_PROPERTY_KEY = "targetplatform.feature.threads";
+    private static final int DEFAULT_FEATURE_THREADS = 4;
+
+    /**
+     * Set if parts of the target platform could not be resolved, such a result is not indexed
+     */
+    private boolean incomplete;
+
+    /**
+     * The update site metadata files the resolution consulted, in the order they were tried
+     */
+    private final List<String> metadataFiles = new ArrayList<>();
+
     protected abstract ParameterProvider getParameterProvider();
 
     /**
-     * Does the dependencies extraction.
+     * Forgets the features loaded from update sites, called together with the caches of resolved target platforms.
+     */
+    public static void clearCaches() {
+        IncludedFeatureResolver.clearCache();
+    }
+
+    /**
+     * Does the dependencies extraction. If the update site metadata files consulted by the last extraction, the
+     * whitelist and the additional dependencies did not change since then, the result is loaded from the
+     * {@link TargetPlatformIndex} instead.
      * 
      * @param parameterProvider
      *            contains the parameters
@@ -29,12 +59,50 @@ public abstract class AbstractDependenciesExtractor {
 
         Proxy javaProxy = getParameterProvider().getProxy();
 
-        String relativeUrlToJarFile =  UpdateSiteAccessor.readRelativeTargetPlatformFeatureJarUrl(parentUrl + "/" + getParameterProvider().getEfxclipseSite(),
-                getParameterProvider().getTargetFeatureJarPrefix(), javaProxy);
+        RemoteResourceCache cache = new RemoteResourceCache(getParameterProvider().getCacheDirectory(), getParameterProvider().isOffline(), javaProxy);
+        List<String> mirrors = getParameterProvider().getEfxclipseUpdateSiteMirrors();
+        if (mirrors != null && !mirrors.isEmpty() && !getParameterProvider().isOffline()) {
+            cache.getClient().setMirrors(new MirrorSelector(parentUrl, mirrors, getParameterProvider().getEfxclipseSite(),
+                    getParameterProvider().getCacheDirectory(), javaProxy).select());
+        }
+
+        Path indexFile = getIndexFile();
+        List<String> indexedFiles = indexFile != null ? TargetPlatformIndex.readMetadataFiles(indexFile) : null;
+        byte[] fingerprint = indexedFiles != null ? computeSourceFingerprint(parentUrl, cache, indexedFiles) : null;
+        if (fingerprint != null) {
+            Set<Dependency> indexed = TargetPlatformIndex.read(indexFile, fingerprint);
+            if (indexed != null) {
+                LoggingSupport.logDebugMessage("Using the target platform index " + indexFile);
+                cache.getClient().logStatistics();
+                return indexed;
+            }
+        }
 
-        InputStream featureFileInputStream = JarAccessor.readEntry(parentUrl + "/" + relativeUrlToJarFile, getParameterProvider().getFeatureFile());
+        metadataFiles.clear();
+        Set<Dependency> dependencies = resolveDependencies(parentUrl, cache, javaProxy);
 
-        Set<IFeaturePlugin> featurePlugins = FeaturePluginExtractor.extractFeaturePlugins(featureFileInputStream);
+        if (indexFile != null && !incomplete) {
+            // the cache hands out the metadata the resolution read, so the fingerprint matches the result
+            fingerprint = computeSourceFingerprint(parentUrl, cache, metadataFiles);
+            if (fingerprint != null) {
+                TargetPlatformIndex.write(indexFile, metadataFiles, fingerprint, dependencies);
+            }
+        }
+        cache.getClient().logStatistics();
+        return dependencies;
+    }
+
+    private Set<Dependency> resolveDependencies(String parentUrl, RemoteResourceCache cache, Proxy javaProxy) {
+        Set<FeaturePlugin> featurePlugins;
+        if (P2MetadataReader.isP2Metadata(getParameterProvider().getEfxclipseSite())) {
+            featurePlugins = readP2FeaturePlugins(parentUrl, cache, Collections.singletonList(getParameterProvider().getEfxclipseSite()));
+        } else {
+            featurePlugins = readSiteFeaturePlugins(parentUrl, cache, javaProxy);
+            if (featurePlugins == null) {
+                LoggingSupport.logInfoMessage("No target feature found in " + getParameterProvider().getEfxclipseSite() + ", trying the p2 metadata");
+                featurePlugins = readP2FeaturePlugins(parentUrl, cache, P2MetadataReader.METADATA_FILES);
+            }
+        }
 
         Set<Dependency> dependencies = new HashSet<>();
 
@@ -49,12 +117,166 @@ public abstract class AbstractDependenciesExtractor {
             dependencies.addAll(AdditionalDependencyProvider.readAdditionalDependencies(additionalDepenceniesFile));
 
         } catch (IOException e) {
+            incomplete = true;
             LoggingSupport.logErrorMessage("Error on reading/closing  whitelist file or additional depencies file");
         }
 
         return dependencies;
     }
 
+    /**
+     * @return the index of this configuration or <code>null</code> if there is no cache directory
+     */
+    private Path getIndexFile() {
+        Path directory = getParameterProvider().getCacheDirectory();
+        if (directory == null) {
+            return null;
+        }
+        byte[] key = TargetPlatformIndex.fingerprint(configuration(), Collections.emptyList());
+        StringBuilder name = new StringBuilder();
+        for (byte b : key) {
+            name.append(String.format("%02x", b));
+        }
+        return directory.resolve("index").resolve(name.append(".tpi").toString());
+    }
+
+    /**
+     * Fingerprints the configuration, the whitelist, the additional dependencies and the given update site metadata
+     * files. The metadata is fetched through the cache, so the resolution does not fetch it again. A file that can not
+     * be read is fingerprinted as missing, as the resolution skipped it as well.
+     *
+     * @return the fingerprint or <code>null</code> if the whitelist or the additional dependencies can not be read
+     */
+    private byte[] computeSourceFingerprint(String parentUrl, RemoteResourceCache cache, List<String> files) {
+        List<byte[]> contents = new ArrayList<>();
+        try {
+            contents.add(readResource(getParameterProvider().getWhitelistFile()));
+            contents.add(readResource(getParameterProvider().getAdditionalDependenciesFile()));
+        } catch (IOException e) {
+            LoggingSupport.logDebugMessage("Can not read the whitelist or the additional dependencies: " + e.getMessage());
+            return null;
+        }
+
+        for (String file : files) {
+            try {
+                contents.add(cache.get(parentUrl + "/" + file));
+            } catch (IOException e) {
+                LoggingSupport.logDebugMessage("Can not read " + parentUrl + "/" + file + ": " + e.getMessage());
+                contents.add(null);
+            }
+        }
+
+        List<String> inputs = new ArrayList<>(configuration());
+        inputs.addAll(files);
+        return TargetPlatformIndex.fingerprint(inputs, contents);
+    }
+
+    private List<String> configuration() {
+        return Arrays.asList(getParameterProvider().getEfxclipseUpdateSite(), getParameterProvider().getEfxclipseSite(),
+                getParameterProvider().getTargetFeatureJarPrefix(), getParameterProvider().getFeatureFile(), getParameterProvider().getWhitelistFile(),
+                getParameterProvider().getAdditionalDependenciesFile());
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream in = FeaturePluginFilter.class.getResourceAsStream(name)) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int l;
+            while ((l = in.read(buf)) != -1) {
+                out.write(buf, 0, l);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Reads the target feature from a legacy update site described by a site.xml.
+     *
+     * @return the plugins or <code>null</code> if the site does not contain the target feature
+     */
+    private Set<FeaturePlugin> readSiteFeaturePlugins(String parentUrl, RemoteResourceCache cache, Proxy javaProxy) {
+        String siteUrl = parentUrl + "/" + getParameterProvider().getEfxclipseSite();
+        metadataFiles.add(getParameterProvider().getEfxclipseSite());
+        String relativeUrlToJarFile =  UpdateSiteAccessor.readRelativeTargetPlatformFeatureJarUrl(siteUrl,
+                getParameterProvider().getTargetFeatureJarPrefix(), cache, javaProxy);
+        if (relativeUrlToJarFile == null) {
+            return null;
+        }
+
+        InputStream featureFileInputStream = JarAccessor.readEntry(parentUrl + "/" + relativeUrlToJarFile, getParameterProvider().getFeatureFile(), cache);
+        if (featureFileInputStream == null) {
+            incomplete = true;
+            return Collections.emptySet();
+        }
+
+        Feature root;
+        try {
+            root = FeaturePluginExtractor.extractFeature(featureFileInputStream);
+        } catch (IOException e) {
+            LoggingSupport.logErrorMessage("Can not read the target feature " + relativeUrlToJarFile, e);
+            incomplete = true;
+            return Collections.emptySet();
+        }
+        return resolveIncludedFeatures(parentUrl, siteUrl, cache, root);
+    }
+
+    /**
+     * Reads the target feature from the first of the given p2 metadata files available on the update site.
+     */
+    private Set<FeaturePlugin> readP2FeaturePlugins(String parentUrl, RemoteResourceCache cache, List<String> files) {
+        String featureId = P2MetadataReader.featureId(getParameterProvider().getTargetFeatureJarPrefix());
+        for (String file : files) {
+            metadataFiles.add(file);
+            try {
+                Set<FeaturePlugin> plugins = new P2MetadataReader(file, cache.get(parentUrl + "/" + file)).readFeaturePlugins(featureId);
+                if (plugins != null) {
+                    return plugins;
+                }
+                LoggingSupport.logErrorMessage("Feature " + featureId + " is not part of " + parentUrl + "/" + file);
+                break;
+            } catch (IOException e) {
+                LoggingSupport.logDebugMessage("Can not read " + parentUrl + "/" + file + ": " + e.getMessage());
+            }
+        }
+        LoggingSupport.logErrorMessage("No target feature " + featureId + " found on " + parentUrl);
+        incomplete = true;
+        return Collections.emptySet();
+    }
+
+    /**
+     * Collects the plugins of the feature and all features it includes.
+     */
+    private Set<FeaturePlugin> resolveIncludedFeatures(String parentUrl, String siteUrl, RemoteResourceCache cache, Feature root) {
+        if (root.includes.isEmpty()) {
+            return new HashSet<>(root.plugins);
+        }
+
+        List<SiteFeature> siteFeatures;
+        try {
+            siteFeatures = UpdateSiteAccessor.readSiteFeatures(new ByteArrayInputStream(cache.get(siteUrl)));
+        } catch (IOException e) {
+            LoggingSupport.logErrorMessage(e.getMessage(), e);
+            siteFeatures = Collections.emptyList();
+            incomplete = true;
+        }
+
+        List<SiteFeature> features = siteFeatures;
+        FeatureLoader loader = ref -> {
+            String jarUrl = parentUrl + "/" + UpdateSiteAccessor.findFeatureJarUrl(features, ref.id, ref.version);
+            return FeaturePluginExtractor.extractFeature(new ByteArrayInputStream(cache.getJarEntry(jarUrl, getParameterProvider().getFeatureFile())));
+        };
+
+        IncludedFeatureResolver resolver = new IncludedFeatureResolver(parentUrl, loader, Integer.getInteger(FEATURE_THREADS_PROPERTY_KEY, DEFAULT_FEATURE_THREADS));
+        Set<FeaturePlugin> plugins = resolver.resolve(root);
+        if (!resolver.isComplete()) {
+            incomplete = true;
+        }
+        return plugins;
+    }
+
     private InputStream openAdditionalDepenceniesFile() {
         return FeaturePluginFilter.class.getResourceAsStream(getParameterProvider().getAdditionalDependenciesFile());
     }
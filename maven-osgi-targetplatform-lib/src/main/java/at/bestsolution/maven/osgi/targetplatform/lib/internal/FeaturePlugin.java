@@ -0,0 +1,45 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.util.Objects;
+
+/**
+ * A <code>plugin</code> entry of a feature.xml file.
+ *
+ */
+class FeaturePlugin {
+
+    private final String id;
+    private final String version;
+
+    FeaturePlugin(String id, String version) {
+        this.id = id;
+        this.version = version;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FeaturePlugin)) {
+            return false;
+        }
+        FeaturePlugin other = (FeaturePlugin) obj;
+        return id.equals(other.id) && Objects.equals(version, other.version);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, version);
+    }
+
+    @Override
+    public String toString() {
+        return id + "_" + version;
+    }
+}
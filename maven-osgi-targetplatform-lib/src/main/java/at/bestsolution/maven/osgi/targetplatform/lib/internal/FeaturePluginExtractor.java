@@ -1,14 +1,18 @@
 package at.bestsolution.maven.osgi.targetplatform.lib.internal;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
-import org.eclipse.pde.internal.core.feature.WorkspaceFeatureModel;
-import org.eclipse.pde.internal.core.ifeature.IFeaturePlugin;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.internal.IncludedFeatureResolver.Feature;
+import at.bestsolution.maven.osgi.targetplatform.lib.internal.IncludedFeatureResolver.FeatureReference;
 
 /**
  * Responsible for the extraction of the feature plugins from a feature.xml file.
@@ -21,16 +25,58 @@ class FeaturePluginExtractor {
      * 
      * @param featureInputStream
      * @return
+     * @throws IOException
+     *             if the feature.xml can not be parsed
      */
-    static Set<IFeaturePlugin> extractFeaturePlugins(InputStream featureInputStream) {
+    static Set<FeaturePlugin> extractFeaturePlugins(InputStream featureInputStream) throws IOException {
+        return new HashSet<>(extractFeature(featureInputStream).plugins);
+    }
 
-        WorkspaceFeatureModel fmodel = new WorkspaceFeatureModel(new FileWrapper(featureInputStream));
+    /**
+     * Extracts the plugins and the included features. The file is streamed, only the <code>plugin</code> and
+     * <code>includes</code> elements of the feature are looked at.
+     * 
+     * @param featureInputStream
+     * @return
+     * @throws IOException
+     *             if the feature.xml can not be parsed, a partial feature is never returned
+     */
+    static Feature extractFeature(InputStream featureInputStream) throws IOException {
+        List<FeaturePlugin> plugins = new ArrayList<>();
+        List<FeatureReference> includes = new ArrayList<>();
 
-        fmodel.load();
+        XMLStreamReader reader = null;
+        try {
+            reader = XmlStreams.createReader(featureInputStream);
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    // direct children of <feature>
+                    if (depth == 2) {
+                        String id = reader.getAttributeValue(null, "id");
+                        String version = reader.getAttributeValue(null, "version");
+                        if (id == null) {
+                            continue;
+                        }
+                        if ("plugin".equals(reader.getLocalName())) {
+                            plugins.add(new FeaturePlugin(id, version));
+                        } else if ("includes".equals(reader.getLocalName())) {
+                            includes.add(new FeatureReference(id, version, Boolean.parseBoolean(reader.getAttributeValue(null, "optional"))));
+                        }
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Can not parse the feature: " + e.getMessage(), e);
+        } finally {
+            XmlStreams.close(reader);
+        }
 
-        Map<String, IFeaturePlugin> map = new HashMap<>();
-        Arrays.stream(fmodel.getFeature().getPlugins()).forEach(p -> map.put(p.getId(), p));
-        return new HashSet<>(map.values());
+        return new Feature(plugins, includes);
     }
 
 }
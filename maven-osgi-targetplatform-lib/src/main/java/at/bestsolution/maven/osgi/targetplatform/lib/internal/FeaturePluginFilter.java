@@ -1,41 +1,198 @@
 package at.bestsolution.maven.osgi.targetplatform.lib.internal;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.channels.Channels;
-import java.util.HashSet;
-import java.util.Scanner;
-import java.util.Set;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
-import org.eclipse.pde.internal.core.ifeature.IFeaturePlugin;
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
 
 /**
  * Filters the dependencies according to a white list given as a text file.
- * 
+ * <p>
+ * Every line holds an id pattern, optionally followed by an OSGi version range. <code>*</code> matches any characters
+ * and <code>?</code> a single one. Lines starting with <code>!</code> exclude the matching plugins even if another line
+ * includes them. Everything after <code>#</code> is a comment, blank lines are ignored:
+ * </p>
  *
+ * <pre>
+ * org.eclipse.fx.core
+ * org.eclipse.fx.*              [3.0.0,4.0.0)
+ * !org.eclipse.fx.*.source      # no source bundles
+ * </pre>
+ * <p>
+ * Exact ids are looked up in a hash map, patterns are stored in a trie under their literal prefix, so a plugin is only
+ * checked against the patterns whose prefix it starts with. Compiled white lists are shared by all filters with the same
+ * white list content.
+ * </p>
  */
-class FeaturePluginFilter implements Predicate<IFeaturePlugin> {
+class FeaturePluginFilter implements Predicate<FeaturePlugin> {
 
-    private final Set<String> whiteList;
+    private static final Map<String, WhiteList> COMPILED = new ConcurrentHashMap<>();
+
+    private final WhiteList whiteList;
 
     FeaturePluginFilter(InputStream resource) {
-        this.whiteList = getWhiteList(resource);
+        this.whiteList = COMPILED.computeIfAbsent(read(resource), WhiteList::compile);
     }
 
-    private static Set<String> getWhiteList(InputStream whiteListFile) {
-        Set<String> whiteList = new HashSet<>();
-        try (Scanner sc = new Scanner(Channels.newChannel(whiteListFile))) {
-            while (sc.hasNextLine()) {
-                String line = sc.nextLine();
-                whiteList.add(line);
-            }
+    private static String read(InputStream whiteListFile) {
+        if (whiteListFile == null) {
+            LoggingSupport.logErrorMessage("White list file not found, no plugins are included");
+            return "";
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(whiteListFile, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return whiteList;
     }
 
     @Override
-    public boolean test(IFeaturePlugin p) {
-        return whiteList.contains(p.getId());
+    public boolean test(FeaturePlugin p) {
+        return whiteList.includes.matches(p) && !whiteList.excludes.matches(p);
+    }
+
+    private static class WhiteList {
+        final Rules includes = new Rules();
+        final Rules excludes = new Rules();
+
+        static WhiteList compile(String content) {
+            WhiteList whiteList = new WhiteList();
+            try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+                String line;
+                int number = 0;
+                while ((line = reader.readLine()) != null) {
+                    number++;
+                    int comment = line.indexOf('#');
+                    String entry = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                    if (entry.isEmpty()) {
+                        continue;
+                    }
+
+                    try {
+                        boolean exclude = entry.startsWith("!");
+                        String[] parts = (exclude ? entry.substring(1) : entry).trim().split("\\s+", 2);
+                        VersionRange range = parts.length > 1 ? VersionRange.parse(parts[1]) : null;
+                        (exclude ? whiteList.excludes : whiteList.includes).add(parts[0], range);
+                    } catch (IllegalArgumentException e) {
+                        LoggingSupport.logErrorMessage("Ignoring line " + number + " of the white list: " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return whiteList;
+        }
+    }
+
+    /**
+     * Exact ids in a hash map, patterns in a trie of their literal prefix.
+     */
+    private static class Rules {
+        final Map<String, List<Rule>> exact = new HashMap<>();
+        final Node root = new Node();
+
+        void add(String pattern, VersionRange range) {
+            int wildcard = firstWildcard(pattern);
+            if (wildcard < 0) {
+                exact.computeIfAbsent(pattern, k -> new ArrayList<>()).add(new Rule(null, range));
+                return;
+            }
+
+            Node node = root;
+            for (int i = 0; i < wildcard; i++) {
+                node = node.children.computeIfAbsent(pattern.charAt(i), k -> new Node());
+            }
+            String rest = pattern.substring(wildcard);
+            node.rules.add(new Rule("*".equals(rest) ? null : toRegex(rest), range));
+        }
+
+        boolean matches(FeaturePlugin p) {
+            String id = p.getId();
+            List<Rule> rules = exact.get(id);
+            if (rules != null) {
+                for (Rule r : rules) {
+                    if (r.matches("", p.getVersion())) {
+                        return true;
+                    }
+                }
+            }
+
+            Node node = root;
+            for (int i = 0; node != null; i++) {
+                for (Rule r : node.rules) {
+                    if (r.matches(id.substring(i), p.getVersion())) {
+                        return true;
+                    }
+                }
+                node = i < id.length() ? node.children.get(id.charAt(i)) : null;
+            }
+            return false;
+        }
+
+        private static int firstWildcard(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                if (pattern.charAt(i) == '*' || pattern.charAt(i) == '?') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static Pattern toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int literal = 0;
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (literal < i) {
+                        regex.append(Pattern.quote(glob.substring(literal, i)));
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                    literal = i + 1;
+                }
+            }
+            if (literal < glob.length()) {
+                regex.append(Pattern.quote(glob.substring(literal)));
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+
+    private static class Node {
+        final Map<Character, Node> children = new HashMap<>();
+        final List<Rule> rules = new ArrayList<>();
+    }
+
+    private static class Rule {
+        /**
+         * Matches the id after the literal prefix, <code>null</code> matches everything
+         */
+        final Pattern rest;
+        final VersionRange range;
+
+        Rule(Pattern rest, VersionRange range) {
+            this.rest = rest;
+            this.range = range;
+        }
+
+        boolean matches(String idRest, String version) {
+            return (rest == null || rest.matcher(idRest).matches()) && (range == null || version != null && range.includes(version));
+        }
     }
 
 }
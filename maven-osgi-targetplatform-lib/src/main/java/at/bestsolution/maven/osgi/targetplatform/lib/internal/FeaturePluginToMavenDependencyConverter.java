@@ -4,8 +4,6 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.maven.model.Dependency;
-import org.eclipse.pde.internal.core.ifeature.IFeaturePlugin;
-
 /**
  * Responsible for converting the FeaturePlugins to MavenDependencies.
  *
@@ -22,7 +20,7 @@ class FeaturePluginToMavenDependencyConverter {
      * @param featurePlugins
      * @return
      */
-    static Set<Dependency> convert(Set<IFeaturePlugin> featurePlugins) {
+    static Set<Dependency> convert(Set<FeaturePlugin> featurePlugins) {
         return featurePlugins.stream().map(FeaturePluginToMavenDependencyConverter::convert).collect(Collectors.toSet());
     }
 
@@ -32,7 +30,7 @@ class FeaturePluginToMavenDependencyConverter {
      * @param featurePlugin
      * @return
      */
-    private static Dependency convert(IFeaturePlugin featurePlugin) {
+    private static Dependency convert(FeaturePlugin featurePlugin) {
         Dependency dependency = new Dependency();
         dependency.setGroupId(computeGroupId(featurePlugin));
         dependency.setArtifactId(featurePlugin.getId());
@@ -44,11 +42,11 @@ class FeaturePluginToMavenDependencyConverter {
         return dependency;
     }
 
-    private static String computeVersion(IFeaturePlugin featurePlugin) {
+    private static String computeVersion(FeaturePlugin featurePlugin) {
         return featurePlugin.getVersion().substring(0, featurePlugin.getVersion().lastIndexOf("."));
     }
 
-    private static String computeGroupId(IFeaturePlugin featurePlugin) {
+    private static String computeGroupId(FeaturePlugin featurePlugin) {
         if (featurePlugin.getId().indexOf(FEATURE_PLUGIN_FX_INDICATOR) == -1) {
             return FX_GROUP;
         } else {
@@ -0,0 +1,338 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
+
+/**
+ * Shared access to the update site for all metadata requests.
+ * <p>
+ * Every request gets connect and read timeouts, so a stalled mirror fails instead of hanging the build. Requests failing
+ * on the network level, including unknown hosts and TLS errors, or with 5xx / 429 responses are retried with
+ * exponential backoff. Responses are always read or
+ * closed without disconnecting, so the JDK can reuse the connection (keep-alive). Latency and transferred bytes are
+ * logged per request and summed up for {@link #logStatistics()}. If {@link UpdateSiteMirrors} are set, requests for the
+ * update site go to the fastest mirror and a failing request is sent to the next one without a backoff.
+ * </p>
+ * <p>
+ * The defaults can be changed with the system properties <code>targetplatform.http.connectTimeout</code>,
+ * <code>targetplatform.http.readTimeout</code>, <code>targetplatform.http.retries</code> and
+ * <code>targetplatform.http.backoff</code>, times are in milliseconds.
+ * </p>
+ */
+class HttpClient {
+
+    private static final String CONNECT_TIMEOUT_PROPERTY_KEY = "targetplatform.http.connectTimeout";
+    private static final String READ_TIMEOUT_PROPERTY_KEY = "targetplatform.http.readTimeout";
+    private static final String RETRIES_PROPERTY_KEY = "targetplatform.http.retries";
+    private static final String BACKOFF_PROPERTY_KEY = "targetplatform.http.backoff";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
+    private static final int DEFAULT_READ_TIMEOUT = 30_000;
+    private static final int DEFAULT_RETRIES = 3;
+    private static final int DEFAULT_BACKOFF = 500;
+
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+
+    private final Proxy proxy;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int retries;
+    private final long backoff;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    private volatile UpdateSiteMirrors mirrors;
+
+    /**
+     * Creates a client configured by the system properties.
+     *
+     * @param proxy
+     *            the proxy to use or <code>null</code>
+     */
+    HttpClient(Proxy proxy) {
+        this(proxy, Integer.getInteger(CONNECT_TIMEOUT_PROPERTY_KEY, DEFAULT_CONNECT_TIMEOUT), Integer.getInteger(READ_TIMEOUT_PROPERTY_KEY, DEFAULT_READ_TIMEOUT),
+                Integer.getInteger(RETRIES_PROPERTY_KEY, DEFAULT_RETRIES), Integer.getInteger(BACKOFF_PROPERTY_KEY, DEFAULT_BACKOFF));
+    }
+
+    HttpClient(Proxy proxy, int connectTimeout, int readTimeout, int retries, long backoff) {
+        this.proxy = proxy;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.retries = Math.max(0, retries);
+        this.backoff = backoff;
+    }
+
+    /**
+     * Sends a request and hands the response to the handler. The whole exchange is repeated if it fails on the network
+     * level or is sent to another mirror, so the handler must not have side effects before it returns.
+     *
+     * @param url
+     *            the url, non HTTP urls are opened once without retries
+     * @param customizer
+     *            sets request headers, may be <code>null</code>
+     * @param handler
+     *            reads the response
+     * @return the result of the handler
+     * @throws IOException
+     *             if the last attempt failed
+     */
+    <T> T execute(String url, RequestCustomizer customizer, ResponseHandler<T> handler) throws IOException {
+        for (int attempt = 0;;) {
+            UpdateSiteMirrors m = mirrors;
+            String target = m != null ? m.resolve(url) : url;
+            long start = System.nanoTime();
+            URLConnection connection = open(target);
+            if (customizer != null) {
+                customizer.customize(connection);
+            }
+            boolean http = connection instanceof HttpURLConnection;
+
+            long delay = -1;
+            Response response = new Response(connection);
+            try {
+                int code = response.getCode();
+                if (http && isRetryable(code)) {
+                    delay = retryDelay(m, target, attempt, connection.getHeaderField("Retry-After"));
+                } else if (m != null) {
+                    m.report(target, System.nanoTime() - start);
+                }
+                if (delay < 0) {
+                    return handler.handle(response);
+                }
+                LoggingSupport.logDebugMessage("HTTP " + code + " for " + target + ", retrying in " + delay + " ms");
+            } catch (IOException e) {
+                // only the connection failing may work on the next attempt or mirror, not a handler rejecting the content
+                if (http && response.failure != null && response.code < 400) {
+                    delay = retryDelay(m, target, attempt, null);
+                }
+                if (delay < 0) {
+                    throw e;
+                }
+                LoggingSupport.logDebugMessage("Request to " + target + " failed (" + e + "), retrying in " + delay + " ms");
+            } finally {
+                response.close();
+                record(target, response, System.nanoTime() - start);
+            }
+            if (delay > 0) {
+                sleep(delay);
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Redirects all further requests for the update site to the given mirrors.
+     *
+     * @param mirrors
+     *            the mirrors or <code>null</code> to access the update site directly
+     */
+    void setMirrors(UpdateSiteMirrors mirrors) {
+        this.mirrors = mirrors;
+    }
+
+    /**
+     * Logs the number of requests, the transferred bytes and the summed up latency.
+     */
+    void logStatistics() {
+        if (requests.get() > 0) {
+            LoggingSupport.logInfoMessage("Update site access: " + requests.get() + " requests, " + bytes.get() / 1024 + " KB, "
+                    + TimeUnit.NANOSECONDS.toMillis(nanos.get()) + " ms");
+        }
+    }
+
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    long getTransferredBytes() {
+        return bytes.get();
+    }
+
+    private URLConnection open(String url) throws IOException {
+        URL u = new URL(url);
+        URLConnection connection = proxy != null ? u.openConnection(proxy) : u.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private void record(String url, Response response, long duration) {
+        requests.incrementAndGet();
+        bytes.addAndGet(response.bytes);
+        nanos.addAndGet(duration);
+        LoggingSupport.logDebugMessage("GET " + url + ": " + response.code + ", " + response.bytes + " bytes, " + TimeUnit.NANOSECONDS.toMillis(duration) + " ms");
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 429 || code >= 500;
+    }
+
+    /**
+     * @return <code>0</code> to send the request to another mirror right away, <code>-1</code> if there are no retries
+     *         left or the backoff
+     */
+    private long retryDelay(UpdateSiteMirrors m, String target, int attempt, String retryAfter) {
+        if (m != null && m.failover(target)) {
+            return 0;
+        }
+        if (attempt >= retries) {
+            return -1;
+        }
+        long delay = backoff << Math.min(attempt, 16);
+        if (retryAfter != null) {
+            try {
+                delay = Math.max(delay, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException e) {
+                // an HTTP date, use the backoff
+            }
+        }
+        return Math.max(1, Math.min(delay, MAX_BACKOFF));
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a retry");
+        }
+    }
+
+    /**
+     * Sets the request headers.
+     */
+    interface RequestCustomizer {
+        void customize(URLConnection connection);
+    }
+
+    /**
+     * Reads the response of a request.
+     */
+    interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+    /**
+     * The response of a request. The body is counted and closed by the client, handlers do not need to close it.
+     */
+    static class Response {
+        private final URLConnection connection;
+        private int code = -1;
+        private InputStream body;
+        private long bytes;
+
+        /**
+         * The exception the connection failed with, <code>null</code> if the exchange did not fail on the network level
+         */
+        private IOException failure;
+
+        private Response(URLConnection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * @return the HTTP status code or <code>-1</code> for other protocols
+         */
+        int getCode() throws IOException {
+            if (code == -1 && connection instanceof HttpURLConnection) {
+                try {
+                    code = ((HttpURLConnection) connection).getResponseCode();
+                } catch (IOException e) {
+                    throw failed(e);
+                }
+            }
+            return code;
+        }
+
+        String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        InputStream getBody() throws IOException {
+            if (body == null) {
+                InputStream in;
+                try {
+                    in = connection.getInputStream();
+                } catch (IOException e) {
+                    throw failed(e);
+                }
+                body = new FilterInputStream(in) {
+                    @Override
+                    public int read() throws IOException {
+                        int b;
+                        try {
+                            b = super.read();
+                        } catch (IOException e) {
+                            throw failed(e);
+                        }
+                        if (b != -1) {
+                            bytes++;
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int l;
+                        try {
+                            l = super.read(b, off, len);
+                        } catch (IOException e) {
+                            throw failed(e);
+                        }
+                        if (l > 0) {
+                            bytes += l;
+                        }
+                        return l;
+                    }
+                };
+            }
+            return body;
+        }
+
+        private IOException failed(IOException e) {
+            failure = e;
+            return e;
+        }
+
+        /**
+         * Closes the body, or reads the error body, so the connection can be kept alive.
+         */
+        private void close() {
+            try {
+                if (body != null) {
+                    body.close();
+                } else if (connection instanceof HttpURLConnection) {
+                    InputStream error = ((HttpURLConnection) connection).getErrorStream();
+                    if (error != null) {
+                        try (InputStream in = error) {
+                            byte[] buf = new byte[1024];
+                            while (in.read(buf) != -1) {
+                                // drain
+                            }
+                        }
+                    } else if (code >= 200 && code < 300) {
+                        connection.getInputStream().close();
+                    }
+                } else {
+                    connection.getInputStream().close();
+                }
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
+
+/**
+ * Walks the graph of included features and collects the plugins of all of them.
+ * <p>
+ * Included features are loaded concurrently with bounded parallelism, every feature is visited only once even if it is
+ * included multiple times. Successfully loaded features are cached per update site, id and version until
+ * {@link #clearCache()}, as a published feature version never changes. If multiple features contain the same plugin
+ * the highest version wins.
+ * </p>
+ */
+class IncludedFeatureResolver {
+
+    private static final Map<String, Feature> LOADED = new ConcurrentHashMap<>();
+
+    private final String site;
+    private final FeatureLoader loader;
+    private final int parallelism;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * @param site
+     *            the update site the features are loaded from, used to scope the cache
+     * @param loader
+     *            loads a single feature
+     * @param parallelism
+     *            the maximum number of features loaded concurrently
+     */
+    IncludedFeatureResolver(String site, FeatureLoader loader, int parallelism) {
+        this.site = site;
+        this.loader = loader;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the plugins of the given feature and all features it includes directly or indirectly
+     */
+    Set<FeaturePlugin> resolve(Feature root) {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "feature-resolver");
+            t.setDaemon(true);
+            return t;
+        });
+
+        failures.set(0);
+        Walk walk = new Walk(executor);
+        try {
+            walk.addPlugins(root.plugins);
+            for (FeatureReference r : root.includes) {
+                walk.visit(r);
+            }
+            walk.finished();
+
+            walk.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        LoggingSupport.logDebugMessage("Resolved " + walk.visited.size() + " included features with " + walk.plugins.size() + " plugins");
+        return new HashSet<>(walk.plugins.values());
+    }
+
+    /**
+     * Forgets all loaded features, so a long living JVM picks up features republished under the same version.
+     */
+    static void clearCache() {
+        LOADED.clear();
+    }
+
+    /**
+     * @return <code>false</code> if a required feature could not be loaded by the last {@link #resolve(Feature)}
+     */
+    boolean isComplete() {
+        return failures.get() == 0;
+    }
+
+    /**
+     * Compares OSGi versions, the qualifier is compared lexically.
+     */
+    static int compareVersions(String v1, String v2) {
+        String[] p1 = v1.split("\\.", 4);
+        String[] p2 = v2.split("\\.", 4);
+        for (int i = 0; i < 3; i++) {
+            int c = Integer.compare(number(p1, i), number(p2, i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return (p1.length > 3 ? p1[3] : "").compareTo(p2.length > 3 ? p2[3] : "");
+    }
+
+    private static int number(String[] parts, int i) {
+        try {
+            return i < parts.length ? Integer.parseInt(parts[i]) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private class Walk {
+        final ExecutorService executor;
+        final Set<String> visited = ConcurrentHashMap.newKeySet();
+        final Map<String, FeaturePlugin> plugins = new ConcurrentHashMap<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        // the root counts as pending until all its includes are scheduled
+        final AtomicInteger pending = new AtomicInteger(1);
+
+        Walk(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        void visit(FeatureReference ref) {
+            if (!visited.add(ref.key())) {
+                return;
+            }
+
+            pending.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    Feature f = LOADED.get(site + "|" + ref.key());
+                    if (f == null) {
+                        f = loader.load(ref);
+                        LOADED.put(site + "|" + ref.key(), f);
+                    }
+                    addPlugins(f.plugins);
+                    for (FeatureReference r : f.includes) {
+                        visit(r);
+                    }
+                } catch (IOException e) {
+                    if (ref.optional) {
+                        LoggingSupport.logDebugMessage("Skipping optional feature " + ref.key() + ": " + e.getMessage());
+                    } else {
+                        failures.incrementAndGet();
+                        LoggingSupport.logErrorMessage("Can not load included feature " + ref.key(), e);
+                    }
+                } catch (RuntimeException e) {
+                    done.completeExceptionally(e);
+                } finally {
+                    finished();
+                }
+            });
+        }
+
+        void finished() {
+            if (pending.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+        }
+
+        void addPlugins(Collection<FeaturePlugin> featurePlugins) {
+            for (FeaturePlugin p : featurePlugins) {
+                plugins.merge(p.getId(), p, (a, b) -> compareVersions(a.getVersion(), b.getVersion()) >= 0 ? a : b);
+            }
+        }
+    }
+
+    /**
+     * Loads a single feature of the update site.
+     */
+    interface FeatureLoader {
+        Feature load(FeatureReference reference) throws IOException;
+    }
+
+    /**
+     * An included feature, as declared by the <code>includes</code> element.
+     */
+    static class FeatureReference {
+        final String id;
+        final String version;
+        final boolean optional;
+
+        FeatureReference(String id, String version, boolean optional) {
+            this.id = id;
+            this.version = version == null ? "0.0.0" : version;
+            this.optional = optional;
+        }
+
+        String key() {
+            return id + "_" + version;
+        }
+    }
+
+    /**
+     * The plugins and included features of a single feature.
+     */
+    static class Feature {
+        final Collection<FeaturePlugin> plugins;
+        final List<FeatureReference> includes;
+
+        Feature(Collection<FeaturePlugin> plugins, List<FeatureReference> includes) {
+            Map<String, FeaturePlugin> byId = new HashMap<>();
+            plugins.forEach(p -> byId.put(p.getId(), p));
+            this.plugins = byId.values();
+            this.includes = new ArrayList<>(includes);
+        }
+    }
+}
@@ -1,38 +1,31 @@
 package at.bestsolution.maven.osgi.targetplatform.lib.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.JarURLConnection;
-import java.net.URL;
-import java.util.jar.JarFile;
+import java.net.Proxy;
 
 import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
 
 /**
- * Accesses the target platform jar on the update site and provides the feature.xml entry as an input stream.
+ * Accesses the target platform jar on the update site and provides the feature.xml entry as an input stream. Only the
+ * entry is transferred if the server supports range requests, see {@link RemoteZipReader}.
  * 
  *
  */
 class JarAccessor {
 
-    private static final String JAR_URL_SUFFIX = "!/";
-    private static final String JAR_URL_PREFIX = "jar:";
-
-    static InputStream readEntry(String jarUrl, String entryName) {
-
+    static InputStream readEntry(String jarUrl, String entryName, RemoteResourceCache cache) {
         try {
-            URL url = new URL(convertToJarUrl(jarUrl));
-            JarURLConnection jarConnection = (JarURLConnection) url.openConnection();
-            JarFile jarFile = jarConnection.getJarFile();
-            return jarFile.getInputStream(jarFile.getEntry(entryName));
+            return new ByteArrayInputStream(cache.getJarEntry(jarUrl, entryName));
         } catch (IOException e) {
             LoggingSupport.logErrorMessage(e.getMessage(), e);
         }
         return null;
     }
 
-    private static String convertToJarUrl(String httpUrl) {
-        return JAR_URL_PREFIX + httpUrl + JAR_URL_SUFFIX;
+    static InputStream readEntry(String jarUrl, String entryName) {
+        return readEntry(jarUrl, entryName, new RemoteResourceCache(null, false, (Proxy) null));
     }
 
 }
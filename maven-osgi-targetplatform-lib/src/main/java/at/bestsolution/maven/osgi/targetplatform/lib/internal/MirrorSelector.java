@@ -0,0 +1,271 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
+
+/**
+ * Selects the mirrors of an update site.
+ * <p>
+ * The update site and all mirrors are probed concurrently by downloading the site file. Only mirrors serving the same
+ * content as the update site are used, if the update site itself does not answer the content most mirrors agree on is
+ * used. The probe results are stored in the cache directory and reused for
+ * <code>targetplatform.mirror.ttl</code> seconds, the probe timeout can be changed with
+ * <code>targetplatform.mirror.probeTimeout</code> in milliseconds.
+ * </p>
+ */
+class MirrorSelector {
+
+    private static final String TTL_PROPERTY_KEY = "targetplatform.mirror.ttl";
+    private static final String PROBE_TIMEOUT_PROPERTY_KEY = "targetplatform.mirror.probeTimeout";
+
+    private static final int DEFAULT_TTL = 3600;
+    private static final int DEFAULT_PROBE_TIMEOUT = 5000;
+
+    private static final String KEY = "key";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String MIRROR = "mirror.";
+    private static final String LATENCY = "latency.";
+
+    private final String updateSite;
+    private final List<String> candidates;
+    private final String siteFile;
+    private final Path directory;
+    private final Proxy proxy;
+    private final long ttl;
+    private final int probeTimeout;
+
+    /**
+     * @param updateSite
+     *            the update site
+     * @param mirrors
+     *            the mirrors of the update site
+     * @param siteFile
+     *            the file probed on every mirror
+     * @param directory
+     *            the cache directory or <code>null</code> to probe on every resolution
+     * @param proxy
+     *            the proxy to use or <code>null</code>
+     */
+    MirrorSelector(String updateSite, List<String> mirrors, String siteFile, Path directory, Proxy proxy) {
+        this(updateSite, mirrors, siteFile, directory, proxy, TimeUnit.SECONDS.toMillis(Integer.getInteger(TTL_PROPERTY_KEY, DEFAULT_TTL)),
+                Integer.getInteger(PROBE_TIMEOUT_PROPERTY_KEY, DEFAULT_PROBE_TIMEOUT));
+    }
+
+    MirrorSelector(String updateSite, List<String> mirrors, String siteFile, Path directory, Proxy proxy, long ttl, int probeTimeout) {
+        Set<String> all = new LinkedHashSet<>();
+        all.add(updateSite);
+        all.addAll(mirrors);
+        this.updateSite = updateSite;
+        this.candidates = new ArrayList<>(all);
+        this.siteFile = siteFile;
+        this.directory = directory;
+        this.proxy = proxy;
+        this.ttl = ttl;
+        this.probeTimeout = probeTimeout;
+    }
+
+    /**
+     * @return the mirrors serving the update site content or <code>null</code> if no mirror answered
+     */
+    UpdateSiteMirrors select() {
+        UpdateSiteMirrors mirrors = readProbes();
+        if (mirrors != null) {
+            LoggingSupport.logDebugMessage("Using the cached mirror probes " + mirrors.getUrls());
+            return mirrors;
+        }
+
+        List<Probe> probes = probe();
+        byte[] fingerprint = referenceFingerprint(probes);
+        if (fingerprint == null) {
+            LoggingSupport.logErrorMessage("None of the mirrors " + candidates + " is available");
+            return null;
+        }
+
+        mirrors = new UpdateSiteMirrors(updateSite);
+        probes.sort(Comparator.comparingLong(p -> p.latency));
+        for (Probe p : probes) {
+            if (p.fingerprint == null) {
+                LoggingSupport.logInfoMessage("Mirror " + p.url + " is not available");
+            } else if (!Arrays.equals(p.fingerprint, fingerprint)) {
+                LoggingSupport.logInfoMessage("Mirror " + p.url + " is out of sync, ignoring it");
+            } else {
+                mirrors.add(p.url, p.latency);
+                LoggingSupport.logDebugMessage("Mirror " + p.url + " answered in " + TimeUnit.NANOSECONDS.toMillis(p.latency) + " ms");
+            }
+        }
+        writeProbes(probes, fingerprint);
+        LoggingSupport.logInfoMessage("Using mirror " + mirrors.getUrls().get(0) + " for " + updateSite);
+        return mirrors;
+    }
+
+    private List<Probe> probe() {
+        ExecutorService executor = Executors.newFixedThreadPool(candidates.size());
+        try {
+            List<Future<Probe>> futures = new ArrayList<>();
+            for (String url : candidates) {
+                futures.add(executor.submit(() -> probe(url)));
+            }
+
+            List<Probe> probes = new ArrayList<>();
+            for (Future<Probe> f : futures) {
+                probes.add(f.get());
+            }
+            return probes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Probe probe(String url) {
+        Probe probe = new Probe();
+        probe.url = url;
+        probe.latency = Long.MAX_VALUE;
+
+        HttpClient client = new HttpClient(proxy, probeTimeout, probeTimeout, 0, 0);
+        long start = System.nanoTime();
+        try {
+            probe.fingerprint = client.execute(url + "/" + siteFile, null, response -> {
+                probe.latency = System.nanoTime() - start;
+                if (response.getCode() != -1 && response.getCode() != 200) {
+                    throw new IOException("HTTP " + response.getCode());
+                }
+                return digest(response.getBody());
+            });
+        } catch (IOException e) {
+            LoggingSupport.logDebugMessage("Probing " + url + " failed: " + e);
+            probe.latency = Long.MAX_VALUE;
+        }
+        return probe;
+    }
+
+    /**
+     * @return the fingerprint of the update site or the one served by most mirrors
+     */
+    private byte[] referenceFingerprint(List<Probe> probes) {
+        Map<String, Integer> counts = new HashMap<>();
+        byte[] reference = null;
+        int max = 0;
+        for (Probe p : probes) {
+            if (p.fingerprint == null) {
+                continue;
+            }
+            if (p.url.equals(updateSite)) {
+                return p.fingerprint;
+            }
+            int count = counts.merge(Arrays.toString(p.fingerprint), 1, Integer::sum);
+            if (count > max) {
+                max = count;
+                reference = p.fingerprint;
+            }
+        }
+        return reference;
+    }
+
+    private UpdateSiteMirrors readProbes() {
+        Path file = getProbeFile();
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            Properties p = new Properties();
+            p.load(in);
+            if (!key().equals(p.getProperty(KEY)) || System.currentTimeMillis() - Long.parseLong(p.getProperty(TIMESTAMP, "0")) > ttl) {
+                return null;
+            }
+
+            UpdateSiteMirrors mirrors = new UpdateSiteMirrors(updateSite);
+            for (int i = 0; p.getProperty(MIRROR + i) != null; i++) {
+                mirrors.add(p.getProperty(MIRROR + i), Long.parseLong(p.getProperty(LATENCY + i)));
+            }
+            return mirrors.getUrls().isEmpty() ? null : mirrors;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void writeProbes(List<Probe> probes, byte[] fingerprint) {
+        Path file = getProbeFile();
+        if (file == null) {
+            return;
+        }
+
+        Properties p = new Properties();
+        p.setProperty(KEY, key());
+        p.setProperty(TIMESTAMP, String.valueOf(System.currentTimeMillis()));
+        int i = 0;
+        for (Probe probe : probes) {
+            if (Arrays.equals(probe.fingerprint, fingerprint)) {
+                p.setProperty(MIRROR + i, probe.url);
+                p.setProperty(LATENCY + i, String.valueOf(probe.latency));
+                i++;
+            }
+        }
+
+        try {
+            Files.createDirectories(file.getParent());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            p.store(out, null);
+            RemoteResourceCache.replace(file, out.toByteArray());
+        } catch (IOException e) {
+            LoggingSupport.logDebugMessage("Can not store the mirror probes in " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Path getProbeFile() {
+        return directory != null ? directory.resolve("mirrors").resolve(RemoteResourceCache.fileName(key()) + ".properties") : null;
+    }
+
+    private String key() {
+        return String.join(" ", candidates) + " " + siteFile;
+    }
+
+    private static byte[] digest(InputStream in) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            try (InputStream d = new DigestInputStream(in, digest)) {
+                byte[] buf = new byte[8192];
+                while (d.read(buf) != -1) {
+                    // digest only
+                }
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Probe {
+        String url;
+        volatile long latency;
+        byte[] fingerprint;
+    }
+}
@@ -0,0 +1,295 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.tukaani.xz.XZInputStream;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
+
+/**
+ * Reads the plugins of a feature from p2 metadata, <code>content.xml.xz</code>, <code>content.jar</code> or a plain
+ * <code>content.xml</code>.
+ * <p>
+ * The metadata file is held as downloaded, the {@link RemoteResourceCache} keeps it for the resolution anyway. Each of
+ * the two passes decompresses it again while it is parsed, so the decompressed XML is never held as a whole, but a
+ * plain <code>content.xml</code> is of course held uncompressed. The first pass only keeps the feature groups with their
+ * requirements, which is enough to find all feature groups reachable from the target feature. The second pass only
+ * keeps the bundles required by those feature groups, so the parsed units stay bounded by the size of the target
+ * platform rather than the size of the repository.
+ * </p>
+ */
+class P2MetadataReader {
+
+    static final String CONTENT_XML_XZ = "content.xml.xz";
+    static final String CONTENT_JAR = "content.jar";
+    static final String CONTENT_XML = "content.xml";
+
+    /**
+     * The metadata files in the order p2 itself prefers them
+     */
+    static final List<String> METADATA_FILES = Arrays.asList(CONTENT_XML_XZ, CONTENT_JAR, CONTENT_XML);
+
+    private static final String IU_NAMESPACE = "org.eclipse.equinox.p2.iu";
+    private static final String BUNDLE_CLASSIFIER = "osgi.bundle";
+    private static final String FEATURE_GROUP_SUFFIX = ".feature.group";
+    private static final String FEATURE_JAR_SUFFIX = ".feature.jar";
+
+    // repository/units/unit
+    private static final int UNIT_DEPTH = 3;
+
+    private final String fileName;
+    private final byte[] content;
+
+    /**
+     * @param fileName
+     *            the name of the metadata file, used to detect the compression
+     * @param content
+     *            the metadata file as downloaded, still compressed unless it is a plain <code>content.xml</code>
+     */
+    P2MetadataReader(String fileName, byte[] content) {
+        this.fileName = fileName;
+        this.content = content;
+    }
+
+    static boolean isP2Metadata(String fileName) {
+        return METADATA_FILES.contains(fileName);
+    }
+
+    /**
+     * @param targetFeatureJarPrefix
+     *            the prefix of the target feature jar in a site.xml, e.g.
+     *            <code>features/org.eclipse.fx.target.feature_</code>
+     * @return the id of the target feature
+     */
+    static String featureId(String targetFeatureJarPrefix) {
+        String id = targetFeatureJarPrefix.substring(targetFeatureJarPrefix.lastIndexOf('/') + 1);
+        return id.endsWith("_") ? id.substring(0, id.length() - 1) : id;
+    }
+
+    /**
+     * @param featureId
+     *            the id of the feature
+     * @return the plugins of the feature and all features it includes, <code>null</code> if the feature is not part of
+     *         the metadata
+     * @throws IOException
+     *             if the metadata can not be read
+     */
+    Set<FeaturePlugin> readFeaturePlugins(String featureId) throws IOException {
+        Map<String, List<Unit>> groups = readFeatureGroups();
+
+        Unit root = highest(groups.get(featureId + FEATURE_GROUP_SUFFIX), null);
+        if (root == null) {
+            return null;
+        }
+
+        // walk the included feature groups, collecting the required plugins
+        Map<String, List<String>> pluginRanges = new HashMap<>();
+        Set<Unit> visited = new HashSet<>();
+        Deque<Unit> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Unit group = queue.poll();
+            if (!visited.add(group)) {
+                continue;
+            }
+            for (Requirement r : group.requirements) {
+                if (r.name.endsWith(FEATURE_GROUP_SUFFIX)) {
+                    Unit included = highest(groups.get(r.name), r.range);
+                    if (included != null) {
+                        queue.add(included);
+                    } else if (!r.optional) {
+                        LoggingSupport.logErrorMessage("Included feature " + r.name + " " + r.range + " is not part of the p2 metadata");
+                    }
+                } else if (!r.name.endsWith(FEATURE_JAR_SUFFIX)) {
+                    pluginRanges.computeIfAbsent(r.name, k -> new ArrayList<>()).add(r.range);
+                }
+            }
+        }
+
+        Map<String, List<String>> bundles = readBundleVersions(pluginRanges.keySet());
+
+        Set<FeaturePlugin> plugins = new HashSet<>();
+        for (Map.Entry<String, List<String>> e : pluginRanges.entrySet()) {
+            List<String> versions = bundles.get(e.getKey());
+            if (versions == null) {
+                // not a bundle, e.g. a configuration unit
+                continue;
+            }
+            for (String range : e.getValue()) {
+                VersionRange r = VersionRange.parse(range);
+                String best = null;
+                for (String v : versions) {
+                    if (r.includes(v) && (best == null || IncludedFeatureResolver.compareVersions(v, best) > 0)) {
+                        best = v;
+                    }
+                }
+                if (best != null) {
+                    plugins.add(new FeaturePlugin(e.getKey(), best));
+                }
+            }
+        }
+
+        LoggingSupport.logDebugMessage("Resolved " + visited.size() + " feature groups with " + plugins.size() + " plugins from " + fileName);
+        return plugins;
+    }
+
+    /**
+     * First pass, collects all feature groups and their requirements on other units.
+     */
+    private Map<String, List<Unit>> readFeatureGroups() throws IOException {
+        Map<String, List<Unit>> groups = new HashMap<>();
+        parse(new UnitHandler() {
+            @Override
+            public boolean accept(String id) {
+                return id.endsWith(FEATURE_GROUP_SUFFIX);
+            }
+
+            @Override
+            public void unit(Unit unit) {
+                groups.computeIfAbsent(unit.id, k -> new ArrayList<>()).add(unit);
+            }
+        });
+        return groups;
+    }
+
+    /**
+     * Second pass, collects the versions of the given bundles.
+     */
+    private Map<String, List<String>> readBundleVersions(Set<String> ids) throws IOException {
+        Map<String, List<String>> bundles = new HashMap<>();
+        parse(new UnitHandler() {
+            @Override
+            public boolean accept(String id) {
+                return ids.contains(id);
+            }
+
+            @Override
+            public void unit(Unit unit) {
+                if (unit.bundle) {
+                    bundles.computeIfAbsent(unit.id, k -> new ArrayList<>()).add(unit.version);
+                }
+            }
+        });
+        return bundles;
+    }
+
+    private void parse(UnitHandler handler) throws IOException {
+        XMLStreamReader reader = null;
+        try (InputStream in = open()) {
+            reader = XmlStreams.createReader(in);
+
+            int depth = 0;
+            Unit unit = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if (depth == UNIT_DEPTH && "unit".equals(name)) {
+                        String id = reader.getAttributeValue(null, "id");
+                        unit = id != null && handler.accept(id) ? new Unit(id, reader.getAttributeValue(null, "version")) : null;
+                    } else if (unit != null) {
+                        if ("required".equals(name) && IU_NAMESPACE.equals(reader.getAttributeValue(null, "namespace"))) {
+                            String range = reader.getAttributeValue(null, "range");
+                            unit.requirements.add(new Requirement(reader.getAttributeValue(null, "name"), range == null ? "0.0.0" : range,
+                                    Boolean.parseBoolean(reader.getAttributeValue(null, "optional"))));
+                        } else if ("artifact".equals(name) && BUNDLE_CLASSIFIER.equals(reader.getAttributeValue(null, "classifier"))) {
+                            unit.bundle = true;
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == UNIT_DEPTH && unit != null) {
+                        handler.unit(unit);
+                        unit = null;
+                    }
+                    depth--;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Can not parse the p2 metadata " + fileName + ": " + e.getMessage(), e);
+        } finally {
+            XmlStreams.close(reader);
+        }
+    }
+
+    private InputStream open() throws IOException {
+        InputStream in = new ByteArrayInputStream(content);
+        if (fileName.endsWith(".xz")) {
+            return new XZInputStream(in);
+        } else if (fileName.endsWith(".jar")) {
+            ZipInputStream zip = new ZipInputStream(in);
+            ZipEntry e;
+            while ((e = zip.getNextEntry()) != null) {
+                if (CONTENT_XML.equals(e.getName())) {
+                    return zip;
+                }
+            }
+            zip.close();
+            throw new IOException("No " + CONTENT_XML + " in " + fileName);
+        }
+        return in;
+    }
+
+    private static Unit highest(List<Unit> units, String range) {
+        Unit best = null;
+        if (units != null) {
+            VersionRange r = range == null ? null : VersionRange.parse(range);
+            for (Unit u : units) {
+                if ((r == null || r.includes(u.version)) && (best == null || IncludedFeatureResolver.compareVersions(u.version, best.version) > 0)) {
+                    best = u;
+                }
+            }
+        }
+        return best;
+    }
+
+    private interface UnitHandler {
+        /**
+         * @return <code>true</code> if the unit with the given id is of interest
+         */
+        boolean accept(String id);
+
+        void unit(Unit unit);
+    }
+
+    private static class Unit {
+        final String id;
+        final String version;
+        final List<Requirement> requirements = new ArrayList<>();
+        boolean bundle;
+
+        Unit(String id, String version) {
+            this.id = id;
+            this.version = version == null ? "0.0.0" : version;
+        }
+    }
+
+    private static class Requirement {
+        final String name;
+        final String range;
+        final boolean optional;
+
+        Requirement(String name, String range, boolean optional) {
+            this.name = name;
+            this.range = range;
+            this.optional = optional;
+        }
+    }
+}
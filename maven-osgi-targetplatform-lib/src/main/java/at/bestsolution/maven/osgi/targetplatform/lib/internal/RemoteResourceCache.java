@@ -0,0 +1,298 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
+
+/**
+ * Persistent cache for the update site metadata.
+ * <p>
+ * Every entry stores the content together with the ETag and Last-Modified validators of the remote resource, which are
+ * used to revalidate the entry with a conditional request. Only the requested entry of a jar is stored, not the whole
+ * jar. If the remote site can not be reached a cached entry is used as is, in offline mode the site is never contacted.
+ * </p>
+ */
+class RemoteResourceCache {
+
+    private static final String KEY = "key";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private static final String JAR_ENTRY_SEPARATOR = "!/";
+
+    private final Path directory;
+    private final boolean offline;
+    private final HttpClient client;
+
+    /**
+     * Content already fetched by this instance, every resource is revalidated at most once per resolution
+     */
+    private final Map<String, byte[]> fetched = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory
+     *            the cache directory or <code>null</code> to disable the persistent cache
+     * @param offline
+     *            <code>true</code> to only serve cached entries
+     * @param proxy
+     *            the proxy to use or <code>null</code>
+     */
+    RemoteResourceCache(Path directory, boolean offline, Proxy proxy) {
+        this(directory, offline, new HttpClient(proxy));
+    }
+
+    /**
+     * @param directory
+     *            the cache directory or <code>null</code> to disable the persistent cache
+     * @param offline
+     *            <code>true</code> to only serve cached entries
+     * @param client
+     *            the client used to access the update site
+     */
+    RemoteResourceCache(Path directory, boolean offline, HttpClient client) {
+        this.directory = directory;
+        this.offline = offline;
+        this.client = client;
+    }
+
+    HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return the content of the given url
+     * @throws IOException
+     *             if the resource can neither be loaded nor is cached
+     */
+    byte[] get(String url) throws IOException {
+        byte[] content = fetched.get(url);
+        if (content == null) {
+            content = get(url, url, cached -> fetch(url, cached, RemoteResourceCache::readFully));
+            fetched.put(url, content);
+        }
+        return content;
+    }
+
+    /**
+     * Reads an entry of a remote jar. Jars on HTTP servers are read with range requests, see {@link RemoteZipReader},
+     * others are streamed until the entry is found. The jar itself is never stored.
+     *
+     * @return the content of the entry
+     * @throws IOException
+     *             if the entry can neither be loaded nor is cached
+     */
+    byte[] getJarEntry(String jarUrl, String entryName) throws IOException {
+        String key = jarUrl + JAR_ENTRY_SEPARATOR + entryName;
+        if (jarUrl.startsWith("http:") || jarUrl.startsWith("https:")) {
+            return get(key, jarUrl, cached -> {
+                RemoteZipReader reader = new RemoteZipReader(jarUrl, client);
+                byte[] content = reader.readEntry(entryName, cached == null ? null : cached.etag, cached == null ? null : cached.lastModified);
+                if (content == null) {
+                    return null;
+                }
+                Entry fresh = new Entry();
+                fresh.content = content;
+                fresh.etag = reader.getETag();
+                fresh.lastModified = reader.getLastModified();
+                return fresh;
+            });
+        }
+        return get(key, jarUrl, cached -> fetch(jarUrl, cached, in -> readJarEntry(in, entryName)));
+    }
+
+    private byte[] get(String key, String url, Fetcher fetcher) throws IOException {
+        Entry cached = readEntry(key);
+
+        if (offline) {
+            if (cached == null) {
+                throw new IOException("Offline mode and no cached copy of " + key);
+            }
+            return cached.content;
+        }
+
+        try {
+            Entry fresh = fetcher.fetch(cached);
+            if (fresh == null) {
+                LoggingSupport.logDebugMessage("Cached copy of " + key + " is up to date");
+                return cached.content;
+            }
+            writeEntry(key, fresh);
+            return fresh.content;
+        } catch (IOException e) {
+            if (cached == null) {
+                throw e;
+            }
+            LoggingSupport.logInfoMessage("Can not access " + url + " (" + e.getMessage() + "), using the cached copy");
+            return cached.content;
+        }
+    }
+
+    /**
+     * @return the fresh entry or <code>null</code> if the cached one is still valid
+     */
+    private Entry fetch(String url, Entry cached, ContentReader reader) throws IOException {
+        return client.execute(url, connection -> {
+            if (cached != null && cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached != null && cached.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }, response -> {
+            if (cached != null && response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+
+            Entry fresh = new Entry();
+            fresh.content = reader.read(response.getBody());
+            fresh.etag = response.getHeader("ETag");
+            fresh.lastModified = response.getHeader("Last-Modified");
+            return fresh;
+        });
+    }
+
+    private Entry readEntry(String key) {
+        if (directory == null) {
+            return null;
+        }
+
+        Path properties = directory.resolve(fileName(key) + ".properties");
+        Path content = directory.resolve(fileName(key) + ".data");
+        if (!Files.exists(properties) || !Files.exists(content)) {
+            return null;
+        }
+
+        try (InputStream in = Files.newInputStream(properties)) {
+            Properties p = new Properties();
+            p.load(in);
+            if (!key.equals(p.getProperty(KEY))) {
+                return null;
+            }
+
+            Entry e = new Entry();
+            e.etag = p.getProperty(ETAG);
+            e.lastModified = p.getProperty(LAST_MODIFIED);
+            e.content = Files.readAllBytes(content);
+            return e;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeEntry(String key, Entry entry) {
+        if (directory == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+
+            Properties p = new Properties();
+            p.setProperty(KEY, key);
+            if (entry.etag != null) {
+                p.setProperty(ETAG, entry.etag);
+            }
+            if (entry.lastModified != null) {
+                p.setProperty(LAST_MODIFIED, entry.lastModified);
+            }
+
+            // content first, a properties file always points to complete content
+            replace(directory.resolve(fileName(key) + ".data"), entry.content);
+
+            ByteArrayOutputStream properties = new ByteArrayOutputStream();
+            p.store(properties, null);
+            replace(directory.resolve(fileName(key) + ".properties"), properties.toByteArray());
+        } catch (IOException e) {
+            LoggingSupport.logDebugMessage("Can not cache " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the content to a temporary file next to the target and moves it in place. The temporary file is removed if
+     * the write or the move fails.
+     */
+    static void replace(Path target, byte[] content) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, content);
+            move(tmp, target);
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String fileName(String key) {
+        try {
+            StringBuilder b = new StringBuilder();
+            for (byte v : MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8))) {
+                b.append(String.format("%02x", v));
+            }
+            return b.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readJarEntry(InputStream in, String entryName) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry e;
+        while ((e = zip.getNextEntry()) != null) {
+            if (e.getName().equals(entryName)) {
+                return readFully(zip);
+            }
+        }
+        throw new IOException("No entry " + entryName + " in the jar");
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int l;
+        while ((l = in.read(buf)) != -1) {
+            out.write(buf, 0, l);
+        }
+        return out.toByteArray();
+    }
+
+    private interface ContentReader {
+        byte[] read(InputStream in) throws IOException;
+    }
+
+    private interface Fetcher {
+        Entry fetch(Entry cached) throws IOException;
+    }
+
+    private static class Entry {
+        byte[] content;
+        String etag;
+        String lastModified;
+    }
+}
@@ -0,0 +1,309 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
+
+/**
+ * Reads a single entry of a zip file on a HTTP server.
+ * <p>
+ * With HTTP Range requests only the end of central directory, the central directory and the bytes of the entry itself
+ * are transferred. If the server does not support ranges the zip is streamed until the entry is found. Once the
+ * validators of the zip are known every further request is sent with <code>If-Range</code>, so a zip changing in
+ * between falls back to the full download instead of mixing two versions.
+ * </p>
+ */
+class RemoteZipReader {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+
+    /**
+     * Slack for the local extra field, which may differ from the one in the central directory
+     */
+    private static final int LOCAL_EXTRA_SLACK = 256;
+
+    private final String url;
+    private final HttpClient client;
+
+    private String etag;
+    private String lastModified;
+    private int requests;
+
+    RemoteZipReader(String url, HttpClient client) {
+        this.url = url;
+        this.client = client;
+    }
+
+    /**
+     * Reads the entry unless the zip still matches the given validators.
+     *
+     * @param entryName
+     *            the entry to read
+     * @param cachedETag
+     *            the ETag of a cached copy or <code>null</code>
+     * @param cachedLastModified
+     *            the Last-Modified of a cached copy or <code>null</code>
+     * @return the content of the entry or <code>null</code> if the zip is not modified
+     * @throws IOException
+     *             if the zip or the entry can not be read
+     */
+    byte[] readEntry(String entryName, String cachedETag, String cachedLastModified) throws IOException {
+        Tail tail = client.execute(url, c -> {
+            requests++;
+            if (cachedETag != null) {
+                c.setRequestProperty("If-None-Match", cachedETag);
+            }
+            if (cachedLastModified != null) {
+                c.setRequestProperty("If-Modified-Since", cachedLastModified);
+            }
+            c.setRequestProperty("Range", "bytes=-" + (END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE));
+        }, response -> {
+            int code = response.getCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && (cachedETag != null || cachedLastModified != null)) {
+                return null;
+            }
+
+            Tail t = new Tail();
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                t.entry = readFromFullDownload(response, entryName);
+            } else {
+                etag = response.getHeader("ETag");
+                lastModified = response.getHeader("Last-Modified");
+                t.length = totalLength(response.getHeader("Content-Range"));
+                t.end = readAll(response.getBody());
+            }
+            return t;
+        });
+
+        if (tail == null) {
+            return null;
+        } else if (tail.entry != null) {
+            return tail.entry;
+        }
+
+        long length = tail.length;
+        byte[] end = tail.end;
+        long endOffset = length - end.length;
+
+        ByteBuffer eocd = findEndOfCentralDirectory(end);
+        if (eocd == null) {
+            throw new IOException("No zip end of central directory in " + url);
+        }
+        long directorySize = eocd.getInt(12) & 0xFFFFFFFFL;
+        long directoryOffset = eocd.getInt(16) & 0xFFFFFFFFL;
+        if (directoryOffset == 0xFFFFFFFFL || directorySize == 0xFFFFFFFFL) {
+            LoggingSupport.logDebugMessage("Zip64 archive " + url + ", falling back to a full download");
+            return fullDownload(entryName);
+        }
+
+        byte[] directory;
+        if (directoryOffset >= endOffset) {
+            int start = (int) (directoryOffset - endOffset);
+            directory = new byte[(int) directorySize];
+            System.arraycopy(end, start, directory, 0, directory.length);
+        } else {
+            directory = range(directoryOffset, directoryOffset + directorySize - 1);
+            if (directory == null) {
+                return fullDownload(entryName);
+            }
+        }
+
+        CentralDirectoryEntry entry = findEntry(directory, entryName);
+        if (entry == null) {
+            throw new IOException("No entry " + entryName + " in " + url);
+        }
+
+        long last = Math.min(length - 1, entry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE + entry.nameLength + entry.extraLength
+                + LOCAL_EXTRA_SLACK + entry.compressedSize - 1);
+        byte[] local = range(entry.localHeaderOffset, last);
+        if (local == null) {
+            return fullDownload(entryName);
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(local).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new IOException("Invalid local file header for " + entryName + " in " + url);
+        }
+        int dataStart = LOCAL_FILE_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        byte[] data;
+        if (dataStart + entry.compressedSize <= local.length) {
+            data = new byte[(int) entry.compressedSize];
+            System.arraycopy(local, dataStart, data, 0, data.length);
+        } else {
+            data = range(entry.localHeaderOffset + dataStart, entry.localHeaderOffset + dataStart + entry.compressedSize - 1);
+            if (data == null) {
+                return fullDownload(entryName);
+            }
+        }
+
+        LoggingSupport.logDebugMessage("Read " + entryName + " from " + url + " with " + requests + " range requests");
+        return decompress(entry, data);
+    }
+
+    String getETag() {
+        return etag;
+    }
+
+    String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the number of requests sent so far
+     */
+    int getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return the bytes of the range or <code>null</code> if the server answered with the full zip
+     */
+    private byte[] range(long first, long last) throws IOException {
+        return client.execute(url, c -> {
+            requests++;
+            c.setRequestProperty("Range", "bytes=" + first + "-" + last);
+            if (etag != null) {
+                c.setRequestProperty("If-Range", etag);
+            } else if (lastModified != null) {
+                c.setRequestProperty("If-Range", lastModified);
+            }
+        }, response -> response.getCode() != HttpURLConnection.HTTP_PARTIAL ? null : readAll(response.getBody()));
+    }
+
+    private byte[] fullDownload(String entryName) throws IOException {
+        return client.execute(url, c -> requests++, response -> readFromFullDownload(response, entryName));
+    }
+
+    private byte[] readFromFullDownload(HttpClient.Response response, String entryName) throws IOException {
+        LoggingSupport.logDebugMessage("No range support for " + url + ", reading the entry from the full download");
+        etag = response.getHeader("ETag");
+        lastModified = response.getHeader("Last-Modified");
+
+        ZipInputStream zip = new ZipInputStream(response.getBody());
+        ZipEntry e;
+        while ((e = zip.getNextEntry()) != null) {
+            if (e.getName().equals(entryName)) {
+                return readAll(zip);
+            }
+        }
+        throw new IOException("No entry " + entryName + " in " + url);
+    }
+
+    private static long totalLength(String contentRange) throws IOException {
+        // bytes <first>-<last>/<length>
+        int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+        if (slash == -1 || contentRange.endsWith("*")) {
+            throw new IOException("Invalid Content-Range '" + contentRange + "'");
+        }
+        return Long.parseLong(contentRange.substring(slash + 1).trim());
+    }
+
+    private static ByteBuffer findEndOfCentralDirectory(byte[] end) {
+        ByteBuffer b = ByteBuffer.wrap(end).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = end.length - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (b.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                return ByteBuffer.wrap(end, i, end.length - i).slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        return null;
+    }
+
+    private static CentralDirectoryEntry findEntry(byte[] directory, String entryName) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(directory).order(ByteOrder.LITTLE_ENDIAN);
+        int i = 0;
+        while (i + CENTRAL_DIRECTORY_ENTRY_SIZE <= directory.length) {
+            if (b.getInt(i) != CENTRAL_DIRECTORY_ENTRY) {
+                throw new IOException("Invalid zip central directory");
+            }
+            int nameLength = b.getShort(i + 28) & 0xFFFF;
+            int extraLength = b.getShort(i + 30) & 0xFFFF;
+            int commentLength = b.getShort(i + 32) & 0xFFFF;
+            String name = new String(directory, i + CENTRAL_DIRECTORY_ENTRY_SIZE, nameLength, StandardCharsets.UTF_8);
+
+            if (name.equals(entryName)) {
+                CentralDirectoryEntry e = new CentralDirectoryEntry();
+                e.method = b.getShort(i + 10) & 0xFFFF;
+                e.compressedSize = b.getInt(i + 20) & 0xFFFFFFFFL;
+                e.size = b.getInt(i + 24) & 0xFFFFFFFFL;
+                e.nameLength = nameLength;
+                e.extraLength = extraLength;
+                e.localHeaderOffset = b.getInt(i + 42) & 0xFFFFFFFFL;
+                return e;
+            }
+            i += CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+        }
+        return null;
+    }
+
+    private static byte[] decompress(CentralDirectoryEntry entry, byte[] data) throws IOException {
+        if (entry.method == ZipEntry.STORED) {
+            return data;
+        } else if (entry.method != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[(int) entry.size];
+            int n = 0;
+            while (n < out.length && !inflater.finished()) {
+                int l = inflater.inflate(out, n, out.length - n);
+                if (l == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += l;
+            }
+            if (n != out.length) {
+                throw new IOException("Truncated zip entry");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int l;
+        while ((l = in.read(buf)) != -1) {
+            out.write(buf, 0, l);
+        }
+        return out.toByteArray();
+    }
+
+    private static class Tail {
+        byte[] entry;
+        byte[] end;
+        long length;
+    }
+
+    private static class CentralDirectoryEntry {
+        int method;
+        long compressedSize;
+        long size;
+        int nameLength;
+        int extraLength;
+        long localHeaderOffset;
+    }
+}
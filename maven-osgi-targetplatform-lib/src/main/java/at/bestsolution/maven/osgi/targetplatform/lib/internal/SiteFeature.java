@@ -0,0 +1,30 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+/**
+ * A <code>feature</code> entry of a site.xml file.
+ *
+ */
+class SiteFeature {
+
+    private final String id;
+    private final String version;
+    private final String url;
+
+    SiteFeature(String id, String version, String url) {
+        this.id = id;
+        this.version = version;
+        this.url = url;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    String getURL() {
+        return url;
+    }
+}
@@ -0,0 +1,206 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.model.Dependency;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
+
+/**
+ * Binary index of a resolved target platform, the dependencies after the whitelist is applied and the additional
+ * dependencies are added.
+ * <p>
+ * The index starts with a magic number, the format version, the update site metadata files the resolution consulted and
+ * the fingerprint of everything the resolution depends on. Group ids, artifact ids and versions are stored once in a
+ * string table, every dependency is three indices into it. An index with a different format version or fingerprint is
+ * ignored.
+ * </p>
+ */
+class TargetPlatformIndex {
+
+    private static final int MAGIC = 0x54504958; // TPIX
+    private static final int FORMAT_VERSION = 2;
+
+    private TargetPlatformIndex() {
+    }
+
+    /**
+     * @return the SHA-1 over the given inputs, <code>null</code> entries are allowed
+     */
+    static byte[] fingerprint(List<String> inputs, List<byte[]> contents) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(ByteBuffer.allocate(4).putInt(FORMAT_VERSION).array());
+            for (String input : inputs) {
+                digest.update(String.valueOf(input).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            for (byte[] content : contents) {
+                digest.update(ByteBuffer.allocate(4).putInt(content == null ? -1 : content.length).array());
+                if (content != null) {
+                    digest.update(content);
+                }
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the update site metadata files the indexed resolution consulted or <code>null</code> if there is no
+     *         readable index
+     */
+    static List<String> readMetadataFiles(Path file) {
+        ByteBuffer b = open(file);
+        if (b == null) {
+            return null;
+        }
+        try {
+            return readMetadataFiles(b);
+        } catch (BufferUnderflowException e) {
+            LoggingSupport.logDebugMessage("Can not read the target platform index " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the indexed dependencies or <code>null</code> if there is no up to date index
+     */
+    static Set<Dependency> read(Path file, byte[] fingerprint) {
+        ByteBuffer b = open(file);
+        if (b == null) {
+            return null;
+        }
+
+        try {
+            readMetadataFiles(b);
+            byte[] indexed = new byte[b.getShort()];
+            b.get(indexed);
+            if (!Arrays.equals(indexed, fingerprint)) {
+                LoggingSupport.logDebugMessage("Target platform index " + file + " is outdated");
+                return null;
+            }
+
+            String[] strings = new String[b.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(b);
+            }
+
+            int count = b.getInt();
+            Set<Dependency> dependencies = new HashSet<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                Dependency d = new Dependency();
+                d.setGroupId(strings[b.getInt()]);
+                d.setArtifactId(strings[b.getInt()]);
+                d.setVersion(strings[b.getInt()]);
+                dependencies.add(d);
+            }
+            return dependencies;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            LoggingSupport.logDebugMessage("Can not read the target platform index " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the whole index, a mapped file would keep it locked on Windows until the buffer is garbage collected.
+     *
+     * @return the index positioned after the format version or <code>null</code> if there is no index of this format
+     */
+    private static ByteBuffer open(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file));
+            return b.getInt() == MAGIC && b.getInt() == FORMAT_VERSION ? b : null;
+        } catch (IOException | BufferUnderflowException e) {
+            LoggingSupport.logDebugMessage("Can not read the target platform index " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private static List<String> readMetadataFiles(ByteBuffer b) {
+        List<String> files = new ArrayList<>();
+        for (int i = b.getShort() & 0xFFFF; i > 0; i--) {
+            files.add(readString(b));
+        }
+        return files;
+    }
+
+    private static String readString(ByteBuffer b) {
+        byte[] s = new byte[b.getShort() & 0xFFFF];
+        b.get(s);
+        return new String(s, StandardCharsets.UTF_8);
+    }
+
+    static void write(Path file, List<String> metadataFiles, byte[] fingerprint, Set<Dependency> dependencies) {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] refs = new int[dependencies.size() * 3];
+        int i = 0;
+        for (Dependency d : dependencies) {
+            refs[i++] = intern(d.getGroupId(), ids, strings);
+            refs[i++] = intern(d.getArtifactId(), ids, strings);
+            refs[i++] = intern(d.getVersion(), ids, strings);
+        }
+
+        try {
+            Files.createDirectories(file.getParent());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeShort(metadataFiles.size());
+                for (String f : metadataFiles) {
+                    writeString(out, f);
+                }
+                out.writeShort(fingerprint.length);
+                out.write(fingerprint);
+
+                out.writeInt(strings.size());
+                for (String s : strings) {
+                    writeString(out, s);
+                }
+
+                out.writeInt(dependencies.size());
+                for (int ref : refs) {
+                    out.writeInt(ref);
+                }
+            }
+            RemoteResourceCache.replace(file, bytes.toByteArray());
+        } catch (IOException e) {
+            LoggingSupport.logDebugMessage("Can not write the target platform index " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int intern(String s, Map<String, Integer> ids, List<String> strings) {
+        return ids.computeIfAbsent(s == null ? "" : s, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+}
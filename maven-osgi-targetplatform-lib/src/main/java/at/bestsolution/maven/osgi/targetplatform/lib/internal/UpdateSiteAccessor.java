@@ -1,13 +1,15 @@
 package at.bestsolution.maven.osgi.targetplatform.lib.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Proxy;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.eclipse.pde.internal.core.isite.ISiteFeature;
-import org.eclipse.pde.internal.core.site.WorkspaceSiteModel;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
 
@@ -20,16 +22,17 @@ import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
 class UpdateSiteAccessor {
 
     static String readRelativeTargetPlatformFeatureJarUrl(String siteUrl, String targetJarUrlPrefix, Proxy proxy) {
+        return readRelativeTargetPlatformFeatureJarUrl(siteUrl, targetJarUrlPrefix, new RemoteResourceCache(null, false, proxy), proxy);
+    }
 
-        try {
-            URL url = new URL(siteUrl);
+    static String readRelativeTargetPlatformFeatureJarUrl(String siteUrl, String targetJarUrlPrefix, RemoteResourceCache cache, Proxy proxy) {
 
+        try {
             if (proxy != null) {
                 LoggingSupport.logInfoMessage("Using proxy (" + proxy.address() + ") for getting the targetplatform feature at URL " + siteUrl);
             }
 
-            URLConnection connection = proxy != null ? url.openConnection(proxy) : url.openConnection();
-            InputStream siteInputStream = connection.getInputStream();
+            InputStream siteInputStream = new ByteArrayInputStream(cache.get(siteUrl));
             return extractRelativeTargetPlatformFeatureJarUrl(siteInputStream, targetJarUrlPrefix);
 
         } catch (IOException e) {
@@ -40,15 +43,68 @@ class UpdateSiteAccessor {
         }
     }
 
+    /**
+     * Streams the site.xml and stops at the first feature whose url starts with the given prefix.
+     */
     static String extractRelativeTargetPlatformFeatureJarUrl(InputStream siteInputStream, String urlPrefix) {
-        WorkspaceSiteModel model = new WorkspaceSiteModel(new FileWrapper(siteInputStream));
-        model.load();
-        for (ISiteFeature f : model.getSite().getFeatures()) {
-            if (f.getURL().startsWith(urlPrefix)) {
-                return f.getURL();
+        XMLStreamReader reader = null;
+        try {
+            reader = XmlStreams.createReader(siteInputStream);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "feature".equals(reader.getLocalName())) {
+                    String url = reader.getAttributeValue(null, "url");
+                    if (url != null && url.startsWith(urlPrefix)) {
+                        return url;
+                    }
+                }
             }
+        } catch (XMLStreamException e) {
+            LoggingSupport.logErrorMessage("Can not parse the site: " + e.getMessage(), e);
+        } finally {
+            XmlStreams.close(reader);
         }
         return null;
     }
 
+    static List<SiteFeature> readSiteFeatures(InputStream siteInputStream) {
+        List<SiteFeature> features = new ArrayList<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = XmlStreams.createReader(siteInputStream);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "feature".equals(reader.getLocalName())) {
+                    String url = reader.getAttributeValue(null, "url");
+                    if (url != null) {
+                        features.add(new SiteFeature(reader.getAttributeValue(null, "id"), reader.getAttributeValue(null, "version"), url));
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            LoggingSupport.logErrorMessage("Can not parse the site: " + e.getMessage(), e);
+        } finally {
+            XmlStreams.close(reader);
+        }
+        return features;
+    }
+
+    /**
+     * Finds the jar of a feature on the update site. An unqualified version (0.0.0) matches the highest version listed
+     * on the site, features not listed are expected at the default location <code>features/id_version.jar</code>.
+     */
+    static String findFeatureJarUrl(List<SiteFeature> siteFeatures, String id, String version) {
+        SiteFeature best = null;
+        for (SiteFeature f : siteFeatures) {
+            if (!id.equals(f.getId())) {
+                continue;
+            }
+            if (version.equals(f.getVersion())) {
+                return f.getURL();
+            }
+            if ("0.0.0".equals(version) && f.getVersion() != null && (best == null || IncludedFeatureResolver.compareVersions(f.getVersion(), best.getVersion()) > 0)) {
+                best = f;
+            }
+        }
+        return best != null ? best.getURL() : "features/" + id + "_" + version + ".jar";
+    }
+
 }
@@ -0,0 +1,149 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
+
+/**
+ * The mirrors of an update site serving the same content, used by the {@link HttpClient} to redirect requests for the
+ * update site.
+ * <p>
+ * Every mirror keeps a moving average of its latency, starting with the probed one. Requests go to the mirror with the
+ * lowest average, so a mirror getting slower during the resolution is replaced by a faster one. A mirror failing a
+ * request gets twice the average of the next best mirror, it is used again once the others get slower or fail
+ * themselves. Only a mirror failing {@value #MAX_FAILURES} requests in a row is not used anymore as long as another one
+ * is left.
+ * </p>
+ */
+class UpdateSiteMirrors {
+
+    /**
+     * Weight of a new latency in the moving average
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * Consecutive failures after which a mirror is taken out of service
+     */
+    static final int MAX_FAILURES = 3;
+
+    /**
+     * Upper bound of the latency a failed mirror is penalized with
+     */
+    private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    private final String updateSite;
+    private final List<Mirror> mirrors = new ArrayList<>();
+
+    /**
+     * @param updateSite
+     *            the update site url used in the requests
+     */
+    UpdateSiteMirrors(String updateSite) {
+        this.updateSite = stripSlash(updateSite);
+    }
+
+    /**
+     * @param url
+     *            the mirror url
+     * @param latency
+     *            the probed latency in nanoseconds
+     */
+    synchronized void add(String url, long latency) {
+        Mirror m = new Mirror();
+        m.url = stripSlash(url);
+        m.latency = latency;
+        mirrors.add(m);
+    }
+
+    /**
+     * @return the mirror urls in the order they were added
+     */
+    synchronized List<String> getUrls() {
+        List<String> urls = new ArrayList<>();
+        for (Mirror m : mirrors) {
+            urls.add(m.url);
+        }
+        return urls;
+    }
+
+    /**
+     * @return the url on the currently fastest mirror, urls not pointing to the update site are returned as is
+     */
+    synchronized String resolve(String url) {
+        Mirror best = best(null);
+        if (best == null || !url.startsWith(updateSite)) {
+            return url;
+        }
+        return best.url + url.substring(updateSite.length());
+    }
+
+    /**
+     * Records the latency of a successful request sent to a resolved url.
+     */
+    synchronized void report(String resolvedUrl, long latency) {
+        Mirror m = find(resolvedUrl);
+        if (m != null) {
+            m.latency = (long) (ALPHA * latency + (1 - ALPHA) * m.latency);
+            m.failures = 0;
+        }
+    }
+
+    /**
+     * Moves the mirror of a failed request behind the next best one, a mirror failing {@value #MAX_FAILURES} times in a
+     * row is taken out of service, unless it is the last one.
+     *
+     * @return <code>true</code> if the request can be sent to another mirror
+     */
+    synchronized boolean failover(String resolvedUrl) {
+        Mirror m = find(resolvedUrl);
+        if (m == null) {
+            return false;
+        }
+        Mirror next = best(m);
+        if (next == null) {
+            return false;
+        }
+        m.latency = Math.min(Math.max(m.latency, next.latency * 2), MAX_LATENCY);
+        if (++m.failures >= MAX_FAILURES) {
+            m.failed = true;
+            LoggingSupport.logInfoMessage("Mirror " + m.url + " failed " + m.failures + " times, switching to " + next.url);
+        } else {
+            LoggingSupport.logDebugMessage("Mirror " + m.url + " failed, switching to " + next.url);
+        }
+        return true;
+    }
+
+    private Mirror best(Mirror excluded) {
+        Mirror best = null;
+        for (Mirror m : mirrors) {
+            if (m != excluded && !m.failed && (best == null || m.latency < best.latency)) {
+                best = m;
+            }
+        }
+        return best;
+    }
+
+    private Mirror find(String resolvedUrl) {
+        Mirror found = null;
+        for (Mirror m : mirrors) {
+            if (resolvedUrl.startsWith(m.url) && (found == null || m.url.length() > found.url.length())) {
+                found = m;
+            }
+        }
+        return found;
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private static class Mirror {
+        String url;
+        long latency;
+        int failures;
+        boolean failed;
+    }
+}
@@ -0,0 +1,43 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+/**
+ * An OSGi version range, a single version is the minimum with no upper bound.
+ */
+class VersionRange {
+    private final String min;
+    private final boolean minInclusive;
+    private final String max;
+    private final boolean maxInclusive;
+
+    private VersionRange(String min, boolean minInclusive, String max, boolean maxInclusive) {
+        this.min = min;
+        this.minInclusive = minInclusive;
+        this.max = max;
+        this.maxInclusive = maxInclusive;
+    }
+
+    static VersionRange parse(String range) {
+        String r = range.trim();
+        if (r.startsWith("[") || r.startsWith("(")) {
+            int comma = r.indexOf(',');
+            if (comma < 0 || !(r.endsWith("]") || r.endsWith(")"))) {
+                throw new IllegalArgumentException("Invalid version range " + range);
+            }
+            return new VersionRange(r.substring(1, comma).trim(), r.charAt(0) == '[', r.substring(comma + 1, r.length() - 1).trim(),
+                    r.charAt(r.length() - 1) == ']');
+        }
+        return new VersionRange(r, true, null, false);
+    }
+
+    boolean includes(String version) {
+        int c = IncludedFeatureResolver.compareVersions(version, min);
+        if (c < 0 || c == 0 && !minInclusive) {
+            return false;
+        }
+        if (max == null) {
+            return true;
+        }
+        c = IncludedFeatureResolver.compareVersions(version, max);
+        return c < 0 || c == 0 && maxInclusive;
+    }
+}
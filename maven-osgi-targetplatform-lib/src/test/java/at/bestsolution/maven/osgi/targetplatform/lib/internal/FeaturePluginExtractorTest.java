@@ -3,12 +3,15 @@ package at.bestsolution.maven.osgi.targetplatform.lib.internal;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
 
-import org.eclipse.pde.internal.core.ifeature.IFeaturePlugin;
 import org.junit.Test;
 
 import at.bestsolution.maven.osgi.targetplatform.lib.internal.FeaturePluginExtractor;
+import at.bestsolution.maven.osgi.targetplatform.lib.internal.IncludedFeatureResolver.Feature;
 
 
 public class FeaturePluginExtractorTest {
@@ -18,15 +21,15 @@ public class FeaturePluginExtractorTest {
 	private static final String FEATURE_TEST_XML = "/feature-test.xml";
 
 	@Test
-	public void testExtractFeaturePlugins() {
-		Set<IFeaturePlugin> featurePlugins = FeaturePluginExtractor
+	public void testExtractFeaturePlugins() throws IOException {
+		Set<FeaturePlugin> featurePlugins = FeaturePluginExtractor
 				.extractFeaturePlugins(getClass().getResourceAsStream(FEATURE_TEST_XML));
 
 		assertThat(featurePlugins.size(), equalTo(1));
 
 		if (featurePlugins.size() == 1) {
 
-			IFeaturePlugin featurePlugin = featurePlugins.iterator().next();
+			FeaturePlugin featurePlugin = featurePlugins.iterator().next();
 
 			assertThat(featurePlugin.getId(), equalTo(FEATURE_ID));
 			assertThat(featurePlugin.getVersion(), equalTo(FEATURE_VERSION));
@@ -34,4 +37,27 @@ public class FeaturePluginExtractorTest {
 		}
 	}
 
+	@Test
+	public void testExtractIncludedFeatures() throws IOException {
+		String xml = "<feature id=\"root\" version=\"1.0.0\">"
+				+ "<includes id=\"included\" version=\"2.0.0\"/>"
+				+ "<includes id=\"optional\" version=\"0.0.0\" optional=\"true\"/>"
+				+ "<requires><import plugin=\"not.a.plugin\"/></requires>"
+				+ "</feature>";
+
+		Feature feature = FeaturePluginExtractor.extractFeature(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+
+		assertThat(feature.plugins.size(), equalTo(0));
+		assertThat(feature.includes.size(), equalTo(2));
+		assertThat(feature.includes.get(0).key(), equalTo("included_2.0.0"));
+		assertThat(feature.includes.get(1).optional, equalTo(true));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedFeatureFails() throws IOException {
+		String xml = "<feature id=\"root\" version=\"1.0.0\"><plugin id=\"a\" version=\"1.0.0\"/><plu";
+
+		FeaturePluginExtractor.extractFeature(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+
 }
@@ -4,18 +4,18 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import org.eclipse.pde.internal.core.ifeature.IFeaturePlugin;
 import org.junit.Test;
-import org.mockito.Mockito;
 
 import at.bestsolution.maven.osgi.targetplatform.lib.internal.FeaturePluginFilter;
 
@@ -31,30 +31,54 @@ public class FeaturePluginFilterTest {
     @Test
     public void testFilter() {
 
-        IFeaturePlugin featurePlugin1 = Mockito.mock(IFeaturePlugin.class);
-        Mockito.when(featurePlugin1.getId()).thenReturn(FEATURE_PLUGIN_ID_1);
-        Mockito.when(featurePlugin1.getVersion()).thenReturn(FEATURE_PLUGIN_VERSION_1);
+        FeaturePlugin featurePlugin1 = new FeaturePlugin(FEATURE_PLUGIN_ID_1, FEATURE_PLUGIN_VERSION_1);
 
-        IFeaturePlugin featurePlugin2 = Mockito.mock(IFeaturePlugin.class);
-        Mockito.when(featurePlugin2.getId()).thenReturn(FEATURE_PLUGIN_ID_2);
-        Mockito.when(featurePlugin2.getVersion()).thenReturn(FEATURE_PLUGIN_VERSION_2);
+        FeaturePlugin featurePlugin2 = new FeaturePlugin(FEATURE_PLUGIN_ID_2, FEATURE_PLUGIN_VERSION_2);
 
-        Set<IFeaturePlugin> input = new HashSet<>(Arrays.asList(featurePlugin1, featurePlugin2));
+        Set<FeaturePlugin> input = new HashSet<>(Arrays.asList(featurePlugin1, featurePlugin2));
 
         InputStream resource = FeaturePluginFilter.class.getResourceAsStream(WHITELIST_TEST_FILE_NAME);
         
 
-        Set<IFeaturePlugin> filteredSet = input.stream().filter(new FeaturePluginFilter( resource)).collect(Collectors.toSet());
+        Set<FeaturePlugin> filteredSet = input.stream().filter(new FeaturePluginFilter( resource)).collect(Collectors.toSet());
 
         assertThat(filteredSet.size(), equalTo(1));
 
         if (filteredSet.size() == 1) {
 
-            IFeaturePlugin resultingFeaturePlugin = filteredSet.iterator().next();
+            FeaturePlugin resultingFeaturePlugin = filteredSet.iterator().next();
 
             assertThat(resultingFeaturePlugin.getId(), equalTo(FEATURE_PLUGIN_ID_1));
             assertThat(resultingFeaturePlugin.getVersion(), equalTo(FEATURE_PLUGIN_VERSION_1));
         }
 
     }
+
+    @Test
+    public void testPatternsRangesAndComments() {
+        String whiteList = "# target platform\n"
+                + "org.eclipse.fx.core   \r\n"
+                + "\n"
+                + "org.eclipse.fx.*  [3.0.0,4.0.0)\n"
+                + "org.osgi.?ervice.*\n"
+                + "!org.eclipse.fx.*.source  # no sources\n";
+        FeaturePluginFilter filter = new FeaturePluginFilter(new ByteArrayInputStream(whiteList.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(filter.test(new FeaturePlugin("org.eclipse.fx.core", "2.0.0")), equalTo(true));
+        assertThat(filter.test(new FeaturePlugin("org.eclipse.fx.ui", "3.1.0")), equalTo(true));
+        assertThat(filter.test(new FeaturePlugin("org.eclipse.fx.ui", "4.0.0")), equalTo(false));
+        assertThat(filter.test(new FeaturePlugin("org.eclipse.fx.ui.source", "3.1.0")), equalTo(false));
+        assertThat(filter.test(new FeaturePlugin("org.osgi.service.event", "1.0.0")), equalTo(true));
+        assertThat(filter.test(new FeaturePlugin("org.osgi.servce.event", "1.0.0")), equalTo(false));
+        assertThat(filter.test(new FeaturePlugin("org.eclipse.swt", "3.1.0")), equalTo(false));
+    }
+
+    @Test
+    public void testIgnoresInvalidRange() {
+        String whiteList = "org.eclipse.fx.core [1.0.0\norg.eclipse.fx.ui\n";
+        FeaturePluginFilter filter = new FeaturePluginFilter(new ByteArrayInputStream(whiteList.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(filter.test(new FeaturePlugin("org.eclipse.fx.core", "1.0.0")), equalTo(false));
+        assertThat(filter.test(new FeaturePlugin("org.eclipse.fx.ui", "1.0.0")), equalTo(true));
+    }
 }
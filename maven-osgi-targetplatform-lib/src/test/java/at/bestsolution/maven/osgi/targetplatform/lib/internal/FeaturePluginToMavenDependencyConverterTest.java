@@ -8,9 +8,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.maven.model.Dependency;
-import org.eclipse.pde.internal.core.ifeature.IFeaturePlugin;
 import org.junit.Test;
-import org.mockito.Mockito;
 
 import at.bestsolution.maven.osgi.targetplatform.lib.internal.FeaturePluginToMavenDependencyConverter;
 
@@ -26,9 +24,7 @@ public class FeaturePluginToMavenDependencyConverterTest {
 	@Test
 	public void testConversionForFXDependency() {
 		
-		IFeaturePlugin featurePlugin = Mockito.mock(IFeaturePlugin.class);
-		Mockito.when(featurePlugin.getId()).thenReturn(FEATURE_PLUGIN_ID_FX);
-		Mockito.when(featurePlugin.getVersion()).thenReturn(FEATURE_PLUGIN_VERSION_FX);
+		FeaturePlugin featurePlugin = new FeaturePlugin(FEATURE_PLUGIN_ID_FX, FEATURE_PLUGIN_VERSION_FX);
 		
 		Set<Dependency> dependencies = FeaturePluginToMavenDependencyConverter.convert(new HashSet<>(Arrays.asList(featurePlugin)));
 		
@@ -50,9 +46,7 @@ public class FeaturePluginToMavenDependencyConverterTest {
 	@Test
 	public void testConversionForNonFXDependency() {
 		
-		IFeaturePlugin featurePlugin = Mockito.mock(IFeaturePlugin.class);
-		Mockito.when(featurePlugin.getId()).thenReturn(FEATURE_PLUGIN_ID_NON_FX);
-		Mockito.when(featurePlugin.getVersion()).thenReturn(FEATURE_PLUGIN_VERSION_NON_FX);
+		FeaturePlugin featurePlugin = new FeaturePlugin(FEATURE_PLUGIN_ID_NON_FX, FEATURE_PLUGIN_VERSION_NON_FX);
 		
 		Set<Dependency> dependencies = FeaturePluginToMavenDependencyConverter.convert(new HashSet<>(Arrays.asList(featurePlugin)));
 		
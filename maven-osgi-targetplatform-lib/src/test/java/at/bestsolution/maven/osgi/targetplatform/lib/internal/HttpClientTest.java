@@ -0,0 +1,171 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpClientTest {
+
+    private static final byte[] CONTENT = "<site/>".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private final AtomicInteger flakyRequests = new AtomicInteger();
+    private final AtomicInteger missingRequests = new AtomicInteger();
+    private final CountDownLatch stop = new CountDownLatch(1);
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/flaky", exchange -> {
+            if (flakyRequests.incrementAndGet() < 3) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            } else {
+                respond(exchange);
+            }
+        });
+        server.createContext("/missing", exchange -> {
+            missingRequests.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.createContext("/site", HttpClientTest::respond);
+        server.createContext("/broken", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.createContext("/stalled", exchange -> {
+            try {
+                stop.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        stop.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testRetriesServerErrors() throws IOException {
+        HttpClient client = new HttpClient(null, 1000, 1000, 3, 10);
+
+        String content = client.execute(url("flaky"), null, response -> new String(readFully(response.getBody()), StandardCharsets.UTF_8));
+
+        assertThat(content, equalTo("<site/>"));
+        assertThat(client.getRequestCount(), equalTo(3));
+        assertThat(client.getTransferredBytes(), equalTo((long) CONTENT.length));
+    }
+
+    @Test
+    public void testDoesNotRetryClientErrors() throws IOException {
+        HttpClient client = new HttpClient(null, 1000, 1000, 3, 10);
+
+        int code = client.execute(url("missing"), null, HttpClient.Response::getCode);
+
+        assertThat(code, equalTo(404));
+        assertThat(missingRequests.get(), equalTo(1));
+    }
+
+    @Test
+    public void testStalledServerTimesOut() throws IOException {
+        HttpClient client = new HttpClient(null, 1000, 200, 1, 10);
+
+        try {
+            client.execute(url("stalled"), null, HttpClient.Response::getCode);
+            fail();
+        } catch (SocketTimeoutException e) {
+            assertThat(client.getRequestCount(), equalTo(2));
+        }
+    }
+
+    @Test
+    public void testFailsOverToMirror() throws IOException {
+        HttpClient client = new HttpClient(null, 1000, 1000, 0, 10);
+        UpdateSiteMirrors mirrors = new UpdateSiteMirrors(url("site"));
+        mirrors.add(url("broken"), 1);
+        mirrors.add(url("site"), 2);
+        client.setMirrors(mirrors);
+
+        String content = client.execute(url("site") + "/site.xml", null, response -> new String(readFully(response.getBody()), StandardCharsets.UTF_8));
+
+        assertThat(content, equalTo("<site/>"));
+        assertThat(client.getRequestCount(), equalTo(2));
+    }
+
+    @Test
+    public void testFailsOverOnTlsError() throws IOException {
+        HttpClient client = new HttpClient(null, 1000, 1000, 0, 10);
+        UpdateSiteMirrors mirrors = new UpdateSiteMirrors(url("site"));
+        mirrors.add(url("site").replace("http:", "https:"), 1);
+        mirrors.add(url("site"), 2);
+        client.setMirrors(mirrors);
+
+        String content = client.execute(url("site") + "/site.xml", null, response -> new String(readFully(response.getBody()), StandardCharsets.UTF_8));
+
+        assertThat(content, equalTo("<site/>"));
+        assertThat(client.getRequestCount(), equalTo(2));
+    }
+
+    @Test
+    public void testDoesNotRetryRejectedContent() {
+        HttpClient client = new HttpClient(null, 1000, 1000, 3, 10);
+
+        try {
+            client.execute(url("site"), null, response -> {
+                throw new IOException("Invalid content");
+            });
+            fail();
+        } catch (IOException e) {
+            assertThat(client.getRequestCount(), equalTo(1));
+        }
+    }
+
+    private static void respond(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, CONTENT.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(CONTENT);
+        }
+        exchange.close();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int l;
+        while ((l = in.read(buf)) != -1) {
+            out.write(buf, 0, l);
+        }
+        return out.toByteArray();
+    }
+
+    private String url(String context) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/" + context;
+    }
+}
@@ -0,0 +1,104 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import at.bestsolution.maven.osgi.targetplatform.lib.internal.IncludedFeatureResolver.Feature;
+import at.bestsolution.maven.osgi.targetplatform.lib.internal.IncludedFeatureResolver.FeatureReference;
+
+public class IncludedFeatureResolverTest {
+
+    @Test
+    public void testResolvesIncludedFeaturesOnce() {
+        Map<String, Feature> site = new HashMap<>();
+        site.put("a_1.0.0", new Feature(Arrays.asList(plugin("plugin.a", "1.0.0")), includes("shared")));
+        site.put("b_1.0.0", new Feature(Arrays.asList(plugin("plugin.b", "1.0.0")), includes("shared")));
+        site.put("shared_1.0.0", new Feature(Arrays.asList(plugin("plugin.shared", "1.0.0")), includes("a")));
+
+        Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+        Feature root = new Feature(Arrays.asList(plugin("plugin.root", "1.0.0")), includes("a", "b"));
+
+        Set<FeaturePlugin> plugins = new IncludedFeatureResolver(uniqueSite(), ref -> {
+            loads.computeIfAbsent(ref.key(), k -> new AtomicInteger()).incrementAndGet();
+            return site.get(ref.key());
+        }, 4).resolve(root);
+
+        assertThat(ids(plugins), containsInAnyOrder("plugin.root", "plugin.a", "plugin.b", "plugin.shared"));
+        assertThat(loads.size(), equalTo(3));
+        loads.values().forEach(c -> assertThat(c.get(), equalTo(1)));
+    }
+
+    @Test
+    public void testHighestVersionWins() {
+        Feature root = new Feature(Arrays.asList(plugin("plugin.a", "1.2.0")), includes("a"));
+        Feature included = new Feature(Arrays.asList(plugin("plugin.a", "1.10.0")), Collections.emptyList());
+
+        Set<FeaturePlugin> plugins = new IncludedFeatureResolver(uniqueSite(), ref -> included, 2).resolve(root);
+
+        assertThat(plugins.size(), equalTo(1));
+        assertThat(plugins.iterator().next().getVersion(), equalTo("1.10.0"));
+    }
+
+    @Test
+    public void testSkipsMissingFeature() {
+        Feature root = new Feature(Arrays.asList(plugin("plugin.root", "1.0.0")), includes("missing"));
+
+        IncludedFeatureResolver resolver = new IncludedFeatureResolver(uniqueSite(), ref -> {
+            throw new IOException("not found");
+        }, 2);
+        Set<FeaturePlugin> plugins = resolver.resolve(root);
+
+        assertThat(ids(plugins), containsInAnyOrder("plugin.root"));
+        assertThat(resolver.isComplete(), equalTo(false));
+    }
+
+    @Test
+    public void testRetriesFailedFeature() {
+        String site = uniqueSite();
+        Feature root = new Feature(Collections.emptyList(), includes("a"));
+        Feature included = new Feature(Arrays.asList(plugin("plugin.a", "1.0.0")), Collections.emptyList());
+        AtomicInteger loads = new AtomicInteger();
+
+        IncludedFeatureResolver.FeatureLoader loader = ref -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IOException("truncated");
+            }
+            return included;
+        };
+        new IncludedFeatureResolver(site, loader, 1).resolve(root);
+        Set<FeaturePlugin> plugins = new IncludedFeatureResolver(site, loader, 1).resolve(root);
+
+        assertThat(ids(plugins), containsInAnyOrder("plugin.a"));
+        assertThat(loads.get(), equalTo(2));
+    }
+
+    private static String uniqueSite() {
+        return "site-" + System.nanoTime();
+    }
+
+    private static List<FeatureReference> includes(String... ids) {
+        return Arrays.stream(ids).map(id -> new FeatureReference(id, "1.0.0", false)).collect(Collectors.toList());
+    }
+
+    private static List<String> ids(Set<FeaturePlugin> plugins) {
+        return plugins.stream().map(FeaturePlugin::getId).collect(Collectors.toList());
+    }
+
+    private static FeaturePlugin plugin(String id, String version) {
+        return new FeaturePlugin(id, version);
+    }
+}
@@ -0,0 +1,122 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class MirrorSelectorTest {
+
+    private static final byte[] SITE = "<site/>".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final AtomicInteger probes = new AtomicInteger();
+
+    @After
+    public void stopServers() {
+        servers.forEach(s -> s.stop(0));
+    }
+
+    @Test
+    public void testSelectsFastestMatchingMirror() throws IOException {
+        String primary = start(SITE, 300);
+        String fast = start(SITE, 0);
+        String outOfSync = start("<site old='true'/>".getBytes(StandardCharsets.UTF_8), 0);
+
+        UpdateSiteMirrors mirrors = new MirrorSelector(primary, Arrays.asList(outOfSync, fast), "site.xml", null, null, 0, 5000).select();
+
+        assertThat(mirrors.getUrls(), contains(fast, primary));
+        assertThat(mirrors.resolve(primary + "/features/a.jar"), equalTo(fast + "/features/a.jar"));
+    }
+
+    @Test
+    public void testReusesProbesWithinTtl() throws IOException {
+        String primary = start(SITE, 0);
+        String mirror = start(SITE, 0);
+
+        new MirrorSelector(primary, Arrays.asList(mirror), "site.xml", folder.getRoot().toPath(), null, TimeUnit.HOURS.toMillis(1), 5000).select();
+        UpdateSiteMirrors cached = new MirrorSelector(primary, Arrays.asList(mirror), "site.xml", folder.getRoot().toPath(), null, TimeUnit.HOURS.toMillis(1), 5000).select();
+
+        assertThat(probes.get(), equalTo(2));
+        assertThat(cached.getUrls().size(), equalTo(2));
+    }
+
+    @Test
+    public void testSwitchesToFasterMirrorWhenDegraded() {
+        UpdateSiteMirrors mirrors = new UpdateSiteMirrors("http://primary");
+        mirrors.add("http://fast", 10);
+        mirrors.add("http://primary", 20);
+
+        assertThat(mirrors.resolve("http://primary/site.xml"), equalTo("http://fast/site.xml"));
+        mirrors.report("http://fast/site.xml", 1000);
+
+        assertThat(mirrors.resolve("http://primary/site.xml"), equalTo("http://primary/site.xml"));
+    }
+
+    @Test
+    public void testFailoverKeepsLastMirror() {
+        UpdateSiteMirrors mirrors = new UpdateSiteMirrors("http://primary");
+        mirrors.add("http://fast", 10);
+        mirrors.add("http://primary", 20);
+
+        for (int i = 0; i < UpdateSiteMirrors.MAX_FAILURES; i++) {
+            assertThat(mirrors.failover("http://fast/site.xml"), equalTo(true));
+        }
+        assertThat(mirrors.resolve("http://primary/site.xml"), equalTo("http://primary/site.xml"));
+        assertThat(mirrors.failover("http://primary/site.xml"), equalTo(false));
+        assertThat(mirrors.resolve("http://primary/site.xml"), equalTo("http://primary/site.xml"));
+    }
+
+    @Test
+    public void testFailedMirrorRecovers() {
+        UpdateSiteMirrors mirrors = new UpdateSiteMirrors("http://primary");
+        mirrors.add("http://fast", 10);
+        mirrors.add("http://primary", 20);
+
+        assertThat(mirrors.failover("http://fast/site.xml"), equalTo(true));
+        assertThat(mirrors.resolve("http://primary/site.xml"), equalTo("http://primary/site.xml"));
+
+        mirrors.report("http://primary/site.xml", 1000);
+        assertThat(mirrors.resolve("http://primary/site.xml"), equalTo("http://fast/site.xml"));
+    }
+
+    private String start(byte[] site, long delay) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/site.xml", exchange -> {
+            probes.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, site.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(site);
+            }
+            exchange.close();
+        });
+        server.start();
+        servers.add(server);
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+}
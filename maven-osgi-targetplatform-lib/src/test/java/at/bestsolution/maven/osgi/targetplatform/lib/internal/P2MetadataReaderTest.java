@@ -0,0 +1,105 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+public class P2MetadataReaderTest {
+
+    private static final String CONTENT_XML = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<?metadataRepository version='1.1.0'?>\n"
+            + "<repository name='test' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository' version='1'>\n"
+            + "  <units size='7'>\n"
+            + "    <unit id='org.eclipse.fx.target.feature.feature.group' version='3.0.0.v1'>\n"
+            + "      <requires size='4'>\n"
+            + "        <required namespace='org.eclipse.equinox.p2.iu' name='org.eclipse.fx.core' range='[3.0.0.v1,3.0.0.v1]'/>\n"
+            + "        <required namespace='org.eclipse.equinox.p2.iu' name='org.eclipse.fx.included.feature.group' range='[3.0.0,4.0.0)'/>\n"
+            + "        <required namespace='org.eclipse.equinox.p2.iu' name='org.eclipse.fx.target.feature.feature.jar' range='[3.0.0.v1,3.0.0.v1]'/>\n"
+            + "        <required namespace='org.eclipse.equinox.p2.iu' name='config.unit' range='[1.0.0,1.0.0]'/>\n"
+            + "      </requires>\n"
+            + "    </unit>\n"
+            + "    <unit id='org.eclipse.fx.included.feature.group' version='3.0.0.v1'>\n"
+            + "      <requires size='1'>\n"
+            + "        <required namespace='org.eclipse.equinox.p2.iu' name='org.eclipse.fx.ui' range='[3.0.0.v1,3.0.0.v1]'/>\n"
+            + "      </requires>\n"
+            + "    </unit>\n"
+            + "    <unit id='org.eclipse.unrelated.feature.group' version='1.0.0'>\n"
+            + "      <requires size='1'>\n"
+            + "        <required namespace='org.eclipse.equinox.p2.iu' name='org.eclipse.unrelated' range='[1.0.0,1.0.0]'/>\n"
+            + "      </requires>\n"
+            + "    </unit>\n"
+            + bundle("org.eclipse.fx.core", "3.0.0.v1")
+            + bundle("org.eclipse.fx.core", "2.0.0.v1")
+            + bundle("org.eclipse.fx.ui", "3.0.0.v1")
+            + bundle("org.eclipse.unrelated", "1.0.0")
+            + "    <unit id='config.unit' version='1.0.0'/>\n"
+            + "  </units>\n"
+            + "</repository>\n";
+
+    @Test
+    public void testReadsReachableBundlesFromXz() throws IOException {
+        Set<FeaturePlugin> plugins = new P2MetadataReader(P2MetadataReader.CONTENT_XML_XZ, xz(CONTENT_XML)).readFeaturePlugins("org.eclipse.fx.target.feature");
+
+        assertThat(plugins, containsInAnyOrder(new FeaturePlugin("org.eclipse.fx.core", "3.0.0.v1"), new FeaturePlugin("org.eclipse.fx.ui", "3.0.0.v1")));
+    }
+
+    @Test
+    public void testReadsContentJar() throws IOException {
+        Set<FeaturePlugin> plugins = new P2MetadataReader(P2MetadataReader.CONTENT_JAR, jar(CONTENT_XML)).readFeaturePlugins("org.eclipse.fx.included");
+
+        assertThat(plugins, containsInAnyOrder(new FeaturePlugin("org.eclipse.fx.ui", "3.0.0.v1")));
+    }
+
+    @Test
+    public void testMissingFeature() throws IOException {
+        byte[] content = CONTENT_XML.getBytes(StandardCharsets.UTF_8);
+
+        assertThat(new P2MetadataReader(P2MetadataReader.CONTENT_XML, content).readFeaturePlugins("missing"), nullValue());
+    }
+
+    @Test
+    public void testFeatureId() {
+        assertThat(P2MetadataReader.featureId("features/org.eclipse.fx.target.feature_"), equalTo("org.eclipse.fx.target.feature"));
+    }
+
+    private static String bundle(String id, String version) {
+        return "    <unit id='" + id + "' version='" + version + "'>\n"
+                + "      <provides size='1'>\n"
+                + "        <provided namespace='osgi.bundle' name='" + id + "' version='" + version + "'/>\n"
+                + "      </provides>\n"
+                + "      <artifacts size='1'>\n"
+                + "        <artifact classifier='osgi.bundle' id='" + id + "' version='" + version + "'/>\n"
+                + "      </artifacts>\n"
+                + "    </unit>\n";
+    }
+
+    private static byte[] xz(String content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XZOutputStream xz = new XZOutputStream(out, new LZMA2Options())) {
+            xz.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] jar(String content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry(P2MetadataReader.CONTENT_XML));
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return out.toByteArray();
+    }
+}
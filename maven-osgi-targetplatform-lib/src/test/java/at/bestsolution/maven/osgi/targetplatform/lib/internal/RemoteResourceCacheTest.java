@@ -0,0 +1,125 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class RemoteResourceCacheTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final byte[] SITE = "<site/>".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/site.xml", exchange -> {
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                fullResponses.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                exchange.sendResponseHeaders(200, SITE.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(SITE);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testRevalidatesWithETag() throws IOException {
+        Path dir = folder.getRoot().toPath();
+
+        assertThat(new String(new RemoteResourceCache(dir, false, (Proxy) null).get(siteUrl()), StandardCharsets.UTF_8), equalTo("<site/>"));
+        assertThat(new String(new RemoteResourceCache(dir, false, (Proxy) null).get(siteUrl()), StandardCharsets.UTF_8), equalTo("<site/>"));
+
+        assertThat(fullResponses.get(), equalTo(1));
+        assertThat(notModifiedResponses.get(), equalTo(1));
+    }
+
+    @Test
+    public void testOfflineUsesCachedCopy() throws IOException {
+        Path dir = folder.getRoot().toPath();
+
+        new RemoteResourceCache(dir, false, (Proxy) null).get(siteUrl());
+        server.stop(0);
+
+        assertThat(new String(new RemoteResourceCache(dir, true, (Proxy) null).get(siteUrl()), StandardCharsets.UTF_8), equalTo("<site/>"));
+        assertThat(new String(new RemoteResourceCache(dir, false, (Proxy) null).get(siteUrl()), StandardCharsets.UTF_8), equalTo("<site/>"));
+    }
+
+    @Test
+    public void testOfflineWithoutCachedCopyFails() {
+        try {
+            new RemoteResourceCache(folder.getRoot().toPath(), true, (Proxy) null).get(siteUrl());
+            fail();
+        } catch (IOException e) {
+            assertThat(fullResponses.get(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void testReadsJarEntry() throws Exception {
+        String jarUrl = getClass().getResource("/feature-test.jar").toURI().toString();
+
+        byte[] feature = new RemoteResourceCache(folder.getRoot().toPath(), false, (Proxy) null).getJarEntry(jarUrl, "feature-test.xml");
+        byte[] cached = new RemoteResourceCache(folder.getRoot().toPath(), true, (Proxy) null).getJarEntry(jarUrl, "feature-test.xml");
+
+        assertThat(new String(cached, StandardCharsets.UTF_8), equalTo(new String(feature, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testFailedReplaceLeavesNoTemporaryFile() throws IOException {
+        Path target = folder.newFolder("target").toPath();
+        Files.createFile(target.resolve("child"));
+
+        try {
+            RemoteResourceCache.replace(target, new byte[] { 1 });
+            fail();
+        } catch (IOException e) {
+            // a non empty directory can not be replaced
+        }
+
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertThat(files.count(), equalTo(1L));
+        }
+    }
+
+    private String siteUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/site.xml";
+    }
+}
@@ -0,0 +1,135 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class RemoteZipReaderTest {
+
+    private static final String ETAG = "\"jar-v1\"";
+    private static final String FEATURE_XML = "<feature id=\"test\"/>";
+
+    private HttpServer server;
+    private byte[] jar;
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    @Before
+    public void startServer() throws IOException {
+        jar = createJar();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/ranges/feature.jar", exchange -> respond(exchange, true));
+        server.createContext("/plain/feature.jar", exchange -> respond(exchange, false));
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testReadsEntryWithRanges() throws IOException {
+        RemoteZipReader reader = new RemoteZipReader(url("ranges"), new HttpClient(null));
+
+        assertThat(new String(reader.readEntry("feature.xml", null, null), StandardCharsets.UTF_8), equalTo(FEATURE_XML));
+        assertThat(reader.getETag(), equalTo(ETAG));
+        assertThat(bytesSent.get(), lessThan((long) jar.length / 2));
+    }
+
+    @Test
+    public void testFallsBackToFullDownload() throws IOException {
+        RemoteZipReader reader = new RemoteZipReader(url("plain"), new HttpClient(null));
+
+        assertThat(new String(reader.readEntry("feature.xml", null, null), StandardCharsets.UTF_8), equalTo(FEATURE_XML));
+        assertThat(reader.getRequestCount(), equalTo(1));
+    }
+
+    @Test
+    public void testNotModified() throws IOException {
+        RemoteZipReader reader = new RemoteZipReader(url("ranges"), new HttpClient(null));
+
+        assertThat(reader.readEntry("feature.xml", ETAG, null), nullValue());
+        assertThat(reader.getRequestCount(), equalTo(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingEntry() throws IOException {
+        new RemoteZipReader(url("ranges"), new HttpClient(null)).readEntry("missing.xml", null, null);
+    }
+
+    private void respond(HttpExchange exchange, boolean ranges) throws IOException {
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int first = 0;
+        int last = jar.length - 1;
+        int status = 200;
+        if (ranges && range != null) {
+            String spec = range.substring("bytes=".length());
+            if (spec.startsWith("-")) {
+                first = Math.max(0, jar.length - Integer.parseInt(spec.substring(1)));
+            } else {
+                first = Integer.parseInt(spec.substring(0, spec.indexOf('-')));
+                last = Math.min(last, Integer.parseInt(spec.substring(spec.indexOf('-') + 1)));
+            }
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + jar.length);
+        }
+
+        int length = last - first + 1;
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(jar, first, length);
+        }
+        bytesSent.addAndGet(length);
+        exchange.close();
+    }
+
+    private static byte[] createJar() throws IOException {
+        byte[] padding = new byte[256 * 1024];
+        new Random(42).nextBytes(padding);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("padding.bin"));
+            zip.write(padding);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("feature.xml"));
+            zip.write(FEATURE_XML.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("more-padding.bin"));
+            zip.write(padding);
+            zip.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    private String url(String context) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/" + context + "/feature.jar";
+    }
+}
@@ -0,0 +1,75 @@
+package at.bestsolution.maven.osgi.targetplatform.lib.internal;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.maven.model.Dependency;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TargetPlatformIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() {
+        Path file = folder.getRoot().toPath().resolve("index/test.tpi");
+        byte[] fingerprint = fingerprint("site-v1");
+
+        TargetPlatformIndex.write(file, Arrays.asList("site.xml", "content.jar"), fingerprint, new HashSet<>(Arrays.asList(dependency("at.bestsolution.efxclipse.rt", "org.eclipse.fx.core", "3.0.0"),
+                dependency("at.bestsolution.efxclipse.rt", "org.eclipse.fx.ui", "3.0.0"))));
+
+        assertThat(gavs(TargetPlatformIndex.read(file, fingerprint)),
+                containsInAnyOrder("at.bestsolution.efxclipse.rt:org.eclipse.fx.core:3.0.0", "at.bestsolution.efxclipse.rt:org.eclipse.fx.ui:3.0.0"));
+        assertThat(TargetPlatformIndex.readMetadataFiles(file), contains("site.xml", "content.jar"));
+    }
+
+    @Test
+    public void testOutdatedIndexIsIgnored() {
+        Path file = folder.getRoot().toPath().resolve("test.tpi");
+
+        TargetPlatformIndex.write(file, Collections.singletonList("site.xml"), fingerprint("site-v1"), Collections.singleton(dependency("g", "a", "1.0.0")));
+
+        assertThat(TargetPlatformIndex.read(file, fingerprint("site-v2")), nullValue());
+    }
+
+    @Test
+    public void testCorruptIndexIsIgnored() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("test.tpi");
+        Files.write(file, new byte[] { 0x54, 0x50, 0x49, 0x58, 0, 0, 0, 2, 0, 1, 0, 20 });
+
+        assertThat(TargetPlatformIndex.readMetadataFiles(file), nullValue());
+        assertThat(TargetPlatformIndex.read(file, fingerprint("site-v1")), nullValue());
+    }
+
+    private static byte[] fingerprint(String site) {
+        return TargetPlatformIndex.fingerprint(Arrays.asList("http://localhost", "site.xml"),
+                Arrays.asList(site.getBytes(StandardCharsets.UTF_8), null));
+    }
+
+    private static Dependency dependency(String groupId, String artifactId, String version) {
+        Dependency d = new Dependency();
+        d.setGroupId(groupId);
+        d.setArtifactId(artifactId);
+        d.setVersion(version);
+        return d;
+    }
+
+    private static Set<String> gavs(Set<Dependency> dependencies) {
+        return dependencies.stream().map(d -> d.getGroupId() + ":" + d.getArtifactId() + ":" + d.getVersion()).collect(Collectors.toSet());
+    }
+}
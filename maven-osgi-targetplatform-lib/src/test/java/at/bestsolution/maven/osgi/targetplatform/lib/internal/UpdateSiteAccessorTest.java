@@ -6,6 +6,7 @@ import static org.junit.Assert.fail;
 
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -36,4 +37,14 @@ public class UpdateSiteAccessorTest {
         }
 
     }
+
+    @Test
+    public void testFindFeatureJarUrl() {
+
+        List<SiteFeature> features = UpdateSiteAccessor.readSiteFeatures(getClass().getResourceAsStream(SITE_TEST_XML));
+
+        assertThat(UpdateSiteAccessor.findFeatureJarUrl(features, "org.eclipse.fx.target.feature", "3.0.0.201706050601"), equalTo(JAR_PATH));
+        assertThat(UpdateSiteAccessor.findFeatureJarUrl(features, "org.eclipse.fx.target.feature", "0.0.0"), equalTo(JAR_PATH));
+        assertThat(UpdateSiteAccessor.findFeatureJarUrl(features, "unknown", "1.0.0"), equalTo("features/unknown_1.0.0.jar"));
+    }
 }
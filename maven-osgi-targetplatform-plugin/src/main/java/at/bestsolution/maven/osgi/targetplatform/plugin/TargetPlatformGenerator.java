@@ -1,5 +1,7 @@
 package at.bestsolution.maven.osgi.targetplatform.plugin;
 
+import java.util.List;
+
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -44,6 +46,9 @@ public class TargetPlatformGenerator extends AbstractMojo {
     @Parameter(required = true, readonly = true)
     private String efxclipseUpdateSite;
 
+    @Parameter(required = false, readonly = true)
+    private List<String> efxclipseUpdateSiteMirrors;
+
     @Parameter(defaultValue = "${settings}", required = false)
     private Settings settings;
 
@@ -59,7 +64,7 @@ public class TargetPlatformGenerator extends AbstractMojo {
         LoggingSupport.setLogger(logger);
 
         MainApplication mainApplication = new MainApplication(new DefaultParameterProvider(project.getVersion(), project.getArtifactId(), project.getGroupId(),
-                outputFile, additionalDependenciesFile, whitelistFile, featureFile, targetFeatureJarPrefix, efxclipseSite, efxclipseUpdateSite, settings));
+                outputFile, additionalDependenciesFile, whitelistFile, featureFile, targetFeatureJarPrefix, efxclipseSite, efxclipseUpdateSite, efxclipseUpdateSiteMirrors, settings));
         mainApplication.run(this.project, this.session);
 
     }
@@ -1,6 +1,10 @@
 package at.bestsolution.maven.osgi.targetplatform.plugin.internal;
 
 import java.net.Proxy;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.GnuParser;
@@ -17,6 +21,7 @@ import at.bestsolution.maven.osgi.targetplatform.lib.LoggingSupport;
 class CommandLineHandler implements ExtendedParameterProvider {
 
     private static final String EFXCLIPSE_UPDATE_SITE = "efxclipseUpdateSite";
+    private static final String EFXCLIPSE_UPDATE_SITE_MIRRORS = "efxclipseUpdateSiteMirrors";
     private static final String EFXCLIPSE_SITE = "efxclipseSite";
     private static final String TARGET_FEATURE_JAR_PREFIX = "targetFeatureJarPrefix";
     private static final String FEATURE_FILE_ARGUMENT = "feature_file";
@@ -55,6 +60,12 @@ class CommandLineHandler implements ExtendedParameterProvider {
         return line.getOptionValue(EFXCLIPSE_UPDATE_SITE);
     }
 
+    @Override
+    public List<String> getEfxclipseUpdateSiteMirrors() {
+        String[] mirrors = line.getOptionValues(EFXCLIPSE_UPDATE_SITE_MIRRORS);
+        return mirrors != null ? Arrays.asList(mirrors) : Collections.emptyList();
+    }
+
     @Override
     public String getEfxclipseSite() {
         return line.getOptionValue(EFXCLIPSE_SITE, "site.xml");
@@ -103,6 +114,7 @@ class CommandLineHandler implements ExtendedParameterProvider {
     private Options createCommandLineOptionsDefintion() {
         Options opt = new Options();
         opt.addRequiredOption(EFXCLIPSE_UPDATE_SITE, null, true, "url of efxclipse update site");
+        opt.addOption(EFXCLIPSE_UPDATE_SITE_MIRRORS, null, true, "url of an efxclipse update site mirror, may be repeated");
         opt.addOption(EFXCLIPSE_SITE, null, true, "file name of site");
         opt.addRequiredOption(TARGET_FEATURE_JAR_PREFIX, null, true, "prefix of target feature jar");
         opt.addOption(FEATURE_FILE_ARGUMENT, null, true, "path to feature file");
@@ -120,4 +132,14 @@ class CommandLineHandler implements ExtendedParameterProvider {
         return null;
     }
 
+    @Override
+    public Path getCacheDirectory() {
+        return null;
+    }
+
+    @Override
+    public boolean isOffline() {
+        return false;
+    }
+
 }
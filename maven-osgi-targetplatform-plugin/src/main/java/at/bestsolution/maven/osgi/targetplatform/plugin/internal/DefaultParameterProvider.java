@@ -1,6 +1,10 @@
 package at.bestsolution.maven.osgi.targetplatform.plugin.internal;
 
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.maven.settings.Proxy;
 import org.apache.maven.settings.Settings;
@@ -19,10 +23,12 @@ public class DefaultParameterProvider implements ExtendedParameterProvider {
     private final String targetFeatureJarPrefix;
     private final String efxclipseSite;
     private final String efxclipseUpdateSite;
+    private final List<String> efxclipseUpdateSiteMirrors;
     private final Settings settings;
 
     public DefaultParameterProvider(String version, String artifactId, String groupId, String outputFile, String additionalDependenciesFile,
-            String whitelistFile, String featureFile, String targetFeatureJarPrefix, String efxclipseSite, String efxclipseUpdateSite, Settings settings) {
+            String whitelistFile, String featureFile, String targetFeatureJarPrefix, String efxclipseSite, String efxclipseUpdateSite, List<String> efxclipseUpdateSiteMirrors,
+            Settings settings) {
         this.version = version;
         this.artifactId = artifactId;
         this.groupId = groupId;
@@ -33,6 +39,7 @@ public class DefaultParameterProvider implements ExtendedParameterProvider {
         this.targetFeatureJarPrefix = targetFeatureJarPrefix;
         this.efxclipseSite = efxclipseSite;
         this.efxclipseUpdateSite = efxclipseUpdateSite;
+        this.efxclipseUpdateSiteMirrors = efxclipseUpdateSiteMirrors != null ? efxclipseUpdateSiteMirrors : Collections.emptyList();
         this.settings = settings;
     }
 
@@ -86,6 +93,25 @@ public class DefaultParameterProvider implements ExtendedParameterProvider {
         return efxclipseUpdateSite;
     }
 
+    @Override
+    public List<String> getEfxclipseUpdateSiteMirrors() {
+        return efxclipseUpdateSiteMirrors;
+    }
+
+    @Override
+    public Path getCacheDirectory() {
+        String localRepository = settings != null ? settings.getLocalRepository() : null;
+        if (localRepository == null) {
+            localRepository = System.getProperty("user.home") + "/.m2/repository";
+        }
+        return Paths.get(localRepository).resolve(".cache").resolve("maven-osgi-targetplatform");
+    }
+
+    @Override
+    public boolean isOffline() {
+        return settings != null && settings.isOffline();
+    }
+
     @Override
     public java.net.Proxy getProxy() {
 